@@ -0,0 +1,62 @@
+package it.unibo.agar.bench;
+
+import it.unibo.agar.model.AIMovement;
+import it.unibo.agar.model.GameStateManager;
+import it.unibo.agar.model.World;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AIMovementBenchmark {
+
+    @Param({"10", "100", "1000", "10000", "50000"})
+    public int entities;
+
+    private FixedWorldManager gameManager;
+    private String playerId;
+
+    @Setup(Level.Trial)
+    public void createWorld() {
+        final World world = BenchmarkWorlds.random(entities, 42);
+        playerId = world.getPlayers().getFirst().getId();
+        gameManager = new FixedWorldManager(world);
+    }
+
+    @Benchmark
+    public void moveAI(final Blackhole blackhole) {
+        AIMovement.moveAI(playerId, gameManager);
+        blackhole.consume(gameManager.dx); // The direction picked, so that the decision is not optimized away
+        blackhole.consume(gameManager.dy);
+    }
+
+    /**
+     * Serves always the same world, so that only the AI decision is measured.
+     */
+    private static final class FixedWorldManager implements GameStateManager {
+        private final World world;
+        private double dx;
+        private double dy;
+
+        private FixedWorldManager(final World world) {
+            this.world = world;
+        }
+
+        @Override
+        public World getWorld() {
+            return world;
+        }
+
+        @Override
+        public void setPlayerDirection(final String playerId, final double dx, final double dy) {
+            this.dx = dx;
+            this.dy = dy;
+        }
+
+        @Override
+        public void tick() { }
+    }
+}
@@ -0,0 +1,32 @@
+package it.unibo.agar.bench;
+
+import it.unibo.agar.model.Food;
+import it.unibo.agar.model.Player;
+import it.unibo.agar.model.World;
+
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Reproducible worlds for the benchmarks: one player every ten entities, the rest is food, on a
+ * map that grows with the number of entities so that density stays close to the real game.
+ */
+final class BenchmarkWorlds {
+    private static final double FOOD_MASS = 150;
+
+    private BenchmarkWorlds() { }
+
+    static World random(final int entities, final long seed) {
+        final Random random = new Random(seed);
+        final int side = Math.max(1000, (int) Math.sqrt(entities) * 100);
+        final int players = Math.max(1, entities / 10);
+        final List<Player> playerList = IntStream.range(0, players)
+                .mapToObj(i -> new Player("p" + i, random.nextInt(side), random.nextInt(side), 100 + random.nextInt(400)))
+                .toList();
+        final List<Food> foodList = IntStream.range(0, entities - players)
+                .mapToObj(i -> new Food("f" + i, random.nextInt(side), random.nextInt(side), FOOD_MASS))
+                .toList();
+        return new World(side, side, playerList, foodList);
+    }
+}
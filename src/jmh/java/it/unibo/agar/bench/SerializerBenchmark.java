@@ -0,0 +1,44 @@
+package it.unibo.agar.bench;
+
+import it.unibo.agar.model.BinaryCodec;
+import it.unibo.agar.model.JsonCodec;
+import it.unibo.agar.model.Player;
+import it.unibo.agar.model.Serializer;
+import it.unibo.agar.model.World;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SerializerBenchmark {
+
+    @Param({"10", "100", "1000", "10000", "50000"})
+    public int entities;
+
+    @Param({"binary", "json"})
+    public String codec;
+
+    private Serializer serializer;
+    private World world;
+    private Player player;
+
+    @Setup(Level.Trial)
+    public void createWorld() {
+        serializer = new Serializer("json".equals(codec) ? new JsonCodec() : new BinaryCodec());
+        world = BenchmarkWorlds.random(entities, 42);
+        player = world.getPlayers().getFirst();
+    }
+
+    @Benchmark
+    public World worldRoundTrip() throws IOException {
+        return serializer.deserializeWorld(serializer.serializeWorld(world));
+    }
+
+    @Benchmark
+    public Player playerRoundTrip() throws IOException {
+        return serializer.deserializePlayer(serializer.serializePlayer(player));
+    }
+}
@@ -0,0 +1,99 @@
+package it.unibo.agar.bench;
+
+import it.unibo.agar.model.EatEvent;
+import it.unibo.agar.model.MapRegions;
+import it.unibo.agar.model.Player;
+import it.unibo.agar.model.SimulationKernel;
+import it.unibo.agar.model.World;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Authority tick phases: moving every player (the former moveAllPlayers) and resolving collisions
+ * in the owned zones (the former handleEating), plus the snapshot built for every broadcast.
+ * Eating removes entities, so every eat starts by reloading the world: {@link #reload} measures
+ * that part alone, to be subtracted from the benchmarks that eat. Every invocation runs a batch of
+ * operations, so that the smallest worlds are not dominated by the timer.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SimulationBenchmark {
+    private static final int BATCH = 16;
+
+    @Param({"10", "100", "1000", "10000", "50000"})
+    public int entities;
+
+    private World world;
+    private SimulationKernel kernel;
+    private MapRegions zones;
+    private BitSet ownedZones;
+    private final List<EatEvent> eats = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void createWorld() {
+        world = BenchmarkWorlds.random(entities, 42);
+        kernel = new SimulationKernel(world);
+        final Random random = new Random(7);
+        for (Player player : world.getPlayers()) {
+            kernel.setDirection(player.getId(), random.nextDouble() * 2 - 1, random.nextDouble() * 2 - 1);
+        }
+        // Four zones as in the game, all owned by this node as when it is the only authority
+        zones = new MapRegions(world.getWidth(), world.getHeight(), world.getWidth() / 2.0);
+        ownedZones = zones.all();
+    }
+
+    @Setup(Level.Iteration)
+    public void resetWorld() {
+        kernel.load(world);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void moveAllPlayers(final Blackhole blackhole) {
+        for (int i = 0; i < BATCH; i++) {
+            kernel.move(1.0);
+            blackhole.consume(kernel.snapshot());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void reload(final Blackhole blackhole) {
+        for (int i = 0; i < BATCH; i++) {
+            kernel.load(world);
+            blackhole.consume(kernel.snapshot());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void handleEating(final Blackhole blackhole) {
+        for (int i = 0; i < BATCH; i++) {
+            kernel.load(world);
+            kernel.eat(zones, ownedZones, eats);
+            blackhole.consume(eats.size());
+            eats.clear();
+            blackhole.consume(kernel.snapshot());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void tick(final Blackhole blackhole) {
+        for (int i = 0; i < BATCH; i++) {
+            kernel.load(world);
+            kernel.move(1.0);
+            kernel.eat(zones, ownedZones, eats);
+            blackhole.consume(eats.size());
+            eats.clear();
+            blackhole.consume(kernel.snapshot());
+        }
+    }
+}
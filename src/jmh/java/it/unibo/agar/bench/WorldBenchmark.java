@@ -0,0 +1,48 @@
+package it.unibo.agar.bench;
+
+import it.unibo.agar.model.Food;
+import it.unibo.agar.model.Player;
+import it.unibo.agar.model.World;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WorldBenchmark {
+
+    @Param({"10", "100", "1000", "10000", "50000"})
+    public int entities;
+
+    private World world;
+    private List<Food> eatenFoods;
+    private List<Player> eatenPlayers;
+    private String lastPlayerId;
+
+    @Setup(Level.Trial)
+    public void createWorld() {
+        world = BenchmarkWorlds.random(entities, 42);
+        // About what a busy tick removes: one food in ten and one player in twenty
+        eatenFoods = world.getFoods().stream().filter(f -> f.getId().hashCode() % 10 == 0).toList();
+        eatenPlayers = world.getPlayers().stream().filter(p -> p.getId().hashCode() % 20 == 0).toList();
+        lastPlayerId = world.getPlayers().getLast().getId();
+    }
+
+    @Benchmark
+    public World removeFoods() {
+        return world.removeFoods(eatenFoods);
+    }
+
+    @Benchmark
+    public World removePlayers() {
+        return world.removePlayers(eatenPlayers);
+    }
+
+    @Benchmark
+    public Optional<Player> getPlayerById() {
+        return world.getPlayerById(lastPlayerId);
+    }
+}
@@ -0,0 +1,146 @@
+package it.unibo.agar;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs the simulation with a fixed time step on its own thread and the rendering on a second
+ * thread with its own cadence. After a late tick the loop runs the missed steps back to back, up
+ * to {@code maxCatchUpSteps}; if it is further behind the missed steps are dropped instead of
+ * bursting. Rendering is active: frames are drawn directly by the render thread, never queued on
+ * the event dispatch thread, and a late frame is skipped rather than made up.
+ */
+public class GameLoop {
+    private static final Logger LOGGER = LoggerFactory.getLogger(GameLoop.class);
+    private static final long WARNING_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1); // A slow client warns once a second
+
+    private final long stepNanos;
+    private final int maxCatchUpSteps;
+    private final Step step;
+    private final Runnable render;
+    private final long renderIntervalNanos;
+    private final Thread simulationThread;
+    private final Thread renderThread;
+    private volatile boolean running;
+    private long overruns;
+    private long droppedSteps;
+    private long lastWarning; // With the counts then, so that a warning sums up the steps since the previous one
+    private long warnedOverruns;
+    private long warnedDroppedSteps;
+    private long slowestStep;
+
+    /**
+     * A simulation step; a failing step is logged and the loop goes on.
+     */
+    @FunctionalInterface
+    public interface Step {
+        void run() throws Exception;
+    }
+
+    public GameLoop(long stepMs, int maxCatchUpSteps, Step step, long renderIntervalMs, Runnable render) {
+        this.stepNanos = TimeUnit.MILLISECONDS.toNanos(stepMs);
+        this.maxCatchUpSteps = maxCatchUpSteps;
+        this.step = step;
+        this.renderIntervalNanos = TimeUnit.MILLISECONDS.toNanos(renderIntervalMs);
+        this.render = render;
+        this.simulationThread = new Thread(this::simulate, "game-loop");
+        this.simulationThread.setDaemon(true);
+        this.renderThread = new Thread(this::renderFrames, "render-loop");
+        this.renderThread.setDaemon(true);
+    }
+
+    public void start() {
+        running = true;
+        simulationThread.start();
+        renderThread.start();
+    }
+
+    public void stop() {
+        running = false;
+        if (Thread.currentThread() != simulationThread) {
+            simulationThread.interrupt();
+        }
+        if (Thread.currentThread() != renderThread) {
+            renderThread.interrupt();
+        }
+    }
+
+    private void simulate() {
+        long nextStep = System.nanoTime();
+        lastWarning = nextStep;
+        while (running) {
+            long now = System.nanoTime();
+            if (now < nextStep) {
+                LockSupport.parkNanos(nextStep - now);
+                continue;
+            }
+            final long behind = (now - nextStep) / stepNanos;
+            if (behind > maxCatchUpSteps) {
+                droppedSteps += behind - maxCatchUpSteps;
+                nextStep += (behind - maxCatchUpSteps) * stepNanos;
+            }
+            runStep();
+            final long elapsed = System.nanoTime() - now;
+            if (elapsed > stepNanos) {
+                overruns++;
+                slowestStep = Math.max(slowestStep, elapsed);
+            }
+            warnIfLate(now);
+            nextStep += stepNanos;
+        }
+    }
+
+    /**
+     * Logs the overruns and dropped steps since the last warning, at most once every
+     * {@link #WARNING_INTERVAL_NANOS}.
+     */
+    private void warnIfLate(long now) {
+        if (now - lastWarning < WARNING_INTERVAL_NANOS
+                || (overruns == warnedOverruns && droppedSteps == warnedDroppedSteps)) {
+            return;
+        }
+        LOGGER.warn("Game loop late: {} ticks over the {} ms step, the slowest {} ms, and {} steps dropped "
+                        + "in the last {} ms ({} overruns and {} dropped steps so far)",
+                overruns - warnedOverruns, TimeUnit.NANOSECONDS.toMillis(stepNanos),
+                TimeUnit.NANOSECONDS.toMillis(slowestStep), droppedSteps - warnedDroppedSteps,
+                TimeUnit.NANOSECONDS.toMillis(now - lastWarning), overruns, droppedSteps);
+        lastWarning = now;
+        warnedOverruns = overruns;
+        warnedDroppedSteps = droppedSteps;
+        slowestStep = 0;
+    }
+
+    private void runStep() {
+        try {
+            step.run();
+        } catch (InterruptedException e) {
+            running = false;
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            LOGGER.error("Error during the game tick", e);
+        }
+    }
+
+    private void renderFrames() {
+        long nextFrame = System.nanoTime();
+        while (running) {
+            final long now = System.nanoTime();
+            if (now < nextFrame) {
+                LockSupport.parkNanos(nextFrame - now);
+                continue;
+            }
+            try {
+                render.run();
+            } catch (RuntimeException e) {
+                LOGGER.error("Error while rendering a frame", e);
+            }
+            nextFrame += renderIntervalNanos;
+            if (nextFrame < System.nanoTime()) {
+                nextFrame = System.nanoTime(); // Skip the frames missed by a slow render
+            }
+        }
+    }
+}
@@ -10,17 +10,18 @@ import org.slf4j.LoggerFactory;
 import javax.swing.*;
 import java.awt.*;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeoutException;
 
 public class Main {
     private static final Logger LOGGER = LoggerFactory.getLogger(Main.class);
-    private static final long GAME_TICK_MS = 20; // Corresponds to ~33 FPS
-    private static final Timer timer = new Timer();
+    private static final long GAME_TICK_MS = 20; // Corresponds to 50 simulation steps per second
+    private static final int DEFAULT_REFRESH_RATE = 60;
+    private static final int MAX_CATCH_UP_STEPS = 5;
+    public static final String GLOBAL_VIEW_PROPERTY = "agar.globalView"; // The distributed node then receives the whole map
+    private static volatile GameLoop gameLoop;
 
     public static void main(String[] args) {
         StartScreen.showAndWait();
@@ -31,52 +32,72 @@ public class Main {
         String hostAddress = args[1];
 
         final GameStateManager gameManager;
+        final String lockstepPlayers = System.getProperty(LockstepGameStateManager.PLAYERS_PROPERTY);
+        final boolean showGlobalView = lockstepPlayers != null || Boolean.getBoolean(GLOBAL_VIEW_PROPERTY);
         try {
-            gameManager = new DistributedGameStateManager(hostAddress, playerName, false);
+            if (lockstepPlayers != null) {
+                final LockstepGameStateManager lockstepManager = new LockstepGameStateManager(hostAddress, playerName,
+                        Arrays.asList(lockstepPlayers.trim().split("\\s*,\\s*")), false);
+                lockstepManager.setVictoryListener(Main::onVictory);
+                gameManager = lockstepManager;
+            } else {
+                final DistributedGameStateManager distributedManager =
+                        new DistributedGameStateManager(hostAddress, playerName, false);
+                distributedManager.setVictoryListener(Main::onVictory);
+                if (showGlobalView) {
+                    distributedManager.subscribeToWholeMap(); // Otherwise only the regions around the player
+                }
+                gameManager = distributedManager;
+            }
         } catch (IOException | TimeoutException e) {
             LOGGER.error("Error during connection: {}", e.getMessage());
             return;
-        } catch (ExecutionException | InterruptedException e) {
-            throw new RuntimeException(e);
         }
-        final List<JFrameRepaintable> views = new ArrayList<>();
+        final List<JFrameRenderable> views = new CopyOnWriteArrayList<>(); // Filled on the EDT, read by the render thread
 
         SwingUtilities.invokeLater(() -> {
-            GlobalView globalView = new GlobalView(gameManager);
-            views.add(globalView::repaintView);
-            globalView.setVisible(true);
+            if (showGlobalView) {
+                GlobalView globalView = new GlobalView(gameManager);
+                views.add(globalView::renderView);
+                globalView.setVisible(true);
+            }
 
             LocalView localViewP1 = new LocalView(gameManager, playerName);
-            views.add(localViewP1::repaintView);
+            views.add(localViewP1::renderView);
             localViewP1.setVisible(true);
         });
-        timer.scheduleAtFixedRate(new TimerTask() {
-            @Override
-            public void run() {
-                //AIMovement.moveAI(playerName, gameManager);
-
-                try {
-                    gameManager.tick();
-                } catch (IOException | ExecutionException | InterruptedException e) {
-                    throw new RuntimeException(e);
-                }
-
-                SwingUtilities.invokeLater(() -> {
-                    for (JFrameRepaintable view : views) {
-                        view.repaintView();
-                    }
-                });
+        gameLoop = new GameLoop(GAME_TICK_MS, MAX_CATCH_UP_STEPS, () -> {
+            //AIMovement.moveAI(playerName, gameManager);
+            gameManager.tick();
+        }, renderIntervalMs(), () -> {
+            for (JFrameRenderable view : views) {
+                view.renderView();
             }
-        }, 0, GAME_TICK_MS);
+        });
+        gameLoop.start();
+    }
+
+    /**
+     * Frame interval matching the refresh rate of the screen, as frames faster than it are never shown.
+     */
+    private static long renderIntervalMs() {
+        int refreshRate = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice()
+                .getDisplayMode().getRefreshRate();
+        if (refreshRate == DisplayMode.REFRESH_RATE_UNKNOWN) {
+            refreshRate = DEFAULT_REFRESH_RATE;
+        }
+        return Math.max(1, 1000 / refreshRate);
     }
 
     @FunctionalInterface
-    interface JFrameRepaintable {
-        void repaintView();
+    interface JFrameRenderable {
+        void renderView();
     }
 
     public static void onVictory(String playerName) {
-        timer.cancel();
+        if (gameLoop != null) {
+            gameLoop.stop();
+        }
         SwingUtilities.invokeLater(() -> {
             JFrame frame = new JFrame("Demo");
             frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
@@ -13,7 +13,11 @@ public abstract class AbstractEntity implements Entity {
         this.x = x;
         this.y = y;
         this.mass = mass;
-        this.radius = Math.sqrt(mass / Math.PI);
+        this.radius = radiusOf(mass);
+    }
+
+    public static double radiusOf(final double mass) {
+        return Math.sqrt(mass / Math.PI);
     }
 
     @Override
@@ -0,0 +1,454 @@
+package it.unibo.agar.model;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compact binary codec. Every message starts with a tag byte, strings are written as a length
+ * followed by their UTF-8 bytes and numbers in big-endian order. Messages are encoded into a
+ * per-thread buffer that is reused across calls and decoded straight from the received bytes.
+ * Players are referred to by their id in the {@link PlayerRoster}, or by name if they have none;
+ * when decoding, players whose id is not in the roster yet are left out and their id is noted as
+ * {@linkplain PlayerRoster#missing(int) missing}, so that the node can ask who they are.
+ */
+public class BinaryCodec implements WireCodec {
+    private static final byte PLAYER_TAG = 1;
+    private static final byte WORLD_TAG = 2;
+    private static final byte WORLD_MESSAGE_TAG = 3;
+    private static final byte ELECTION_MESSAGE_TAG = 4;
+    private static final byte INPUT_MESSAGE_TAG = 5;
+    private static final byte ROSTER_MESSAGE_TAG = 6;
+    private static final byte EAT_MESSAGE_TAG = 7;
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+
+    private final ThreadLocal<ByteBuffer> buffers =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocate(INITIAL_BUFFER_SIZE));
+    private final PlayerRoster roster;
+
+    public BinaryCodec(final PlayerRoster roster) {
+        this.roster = roster;
+    }
+
+    /**
+     * A codec writing player names in full, for messages between nodes that share no roster.
+     */
+    public BinaryCodec() {
+        this(new PlayerRoster());
+    }
+
+    @Override
+    public byte[] encodePlayer(Player player) {
+        final Writer writer = writer(PLAYER_TAG);
+        writer.player(player);
+        return writer.toBytes();
+    }
+
+    @Override
+    public Player decodePlayer(byte[] bytes) throws IOException {
+        final Reader reader = reader(bytes, PLAYER_TAG);
+        try {
+            final Player player = reader.player();
+            if (player == null) {
+                throw new IOException("Player not in the roster yet");
+            }
+            return player;
+        } catch (RuntimeException e) {
+            throw truncated(e);
+        }
+    }
+
+    @Override
+    public byte[] encodeWorld(World world) {
+        final Writer writer = writer(WORLD_TAG);
+        writer.putInt(world.getWidth());
+        writer.putInt(world.getHeight());
+        writer.players(world.getPlayers());
+        writer.entities(world.getFoods());
+        return writer.toBytes();
+    }
+
+    @Override
+    public World decodeWorld(byte[] bytes) throws IOException {
+        final Reader reader = reader(bytes, WORLD_TAG);
+        try {
+            final int width = reader.buffer.getInt();
+            final int height = reader.buffer.getInt();
+            return new World(width, height, reader.players(), reader.foods());
+        } catch (RuntimeException e) {
+            throw truncated(e);
+        }
+    }
+
+    @Override
+    public byte[] encodeWorldMessage(WorldMessage message) {
+        final Writer writer = writer(WORLD_MESSAGE_TAG);
+        writer.put((byte) message.type().ordinal());
+        writer.putInt(message.region());
+        writer.putLong(message.sequence());
+        writer.putLong(message.timestamp());
+        writer.putInt(message.width());
+        writer.putInt(message.height());
+        writer.players(message.players());
+        writer.putInt(message.removedPlayers().size());
+        message.removedPlayers().forEach(writer::playerRef);
+        writer.putLong(message.foodEpoch());
+        writer.longs(message.foods());
+        writer.longs(message.eatenFoods());
+        return writer.toBytes();
+    }
+
+    @Override
+    public WorldMessage decodeWorldMessage(byte[] bytes) throws IOException {
+        final Reader reader = reader(bytes, WORLD_MESSAGE_TAG);
+        try {
+            final WorldMessage.Type type = WorldMessage.Type.values()[reader.buffer.get()];
+            final int region = reader.buffer.getInt();
+            final long sequence = reader.buffer.getLong();
+            final long timestamp = reader.buffer.getLong();
+            final int width = reader.buffer.getInt();
+            final int height = reader.buffer.getInt();
+            final List<Player> players = reader.players();
+            final List<String> removedPlayers = reader.playerRefs();
+            final long foodEpoch = reader.buffer.getLong();
+            final List<Long> foods = reader.longs();
+            final List<Long> eatenFoods = reader.longs();
+            return new WorldMessage(type, region, sequence, timestamp, width, height, players, removedPlayers,
+                    foodEpoch, foods, eatenFoods);
+        } catch (RuntimeException e) {
+            throw truncated(e);
+        }
+    }
+
+    @Override
+    public WorldMessage.Header decodeWorldMessageHeader(byte[] bytes) throws IOException {
+        final Reader reader = reader(bytes, WORLD_MESSAGE_TAG);
+        try {
+            final WorldMessage.Type type = WorldMessage.Type.values()[reader.buffer.get()];
+            final int region = reader.buffer.getInt();
+            return new WorldMessage.Header(type, region, reader.buffer.getLong());
+        } catch (RuntimeException e) {
+            throw truncated(e);
+        }
+    }
+
+    @Override
+    public byte[] encodeElectionMessage(ElectionMessage message) {
+        final Writer writer = writer(ELECTION_MESSAGE_TAG);
+        writer.string(message.type());
+        writer.string(message.senderId());
+        writer.putInt(message.zone());
+        writer.putLong(message.timestamp());
+        return writer.toBytes();
+    }
+
+    @Override
+    public ElectionMessage decodeElectionMessage(byte[] bytes) throws IOException {
+        final Reader reader = reader(bytes, ELECTION_MESSAGE_TAG);
+        try {
+            return new ElectionMessage(reader.string(), reader.string(), reader.buffer.getInt(),
+                    reader.buffer.getLong());
+        } catch (RuntimeException e) {
+            throw truncated(e);
+        }
+    }
+
+    @Override
+    public byte[] encodeInputMessage(InputMessage message) {
+        final Writer writer = writer(INPUT_MESSAGE_TAG);
+        writer.playerRef(message.playerId());
+        writer.putLong(message.tick());
+        writer.putDouble(message.dx());
+        writer.putDouble(message.dy());
+        writer.putLong(message.checksumTick());
+        writer.putLong(message.checksum());
+        return writer.toBytes();
+    }
+
+    @Override
+    public InputMessage decodeInputMessage(byte[] bytes) throws IOException {
+        final Reader reader = reader(bytes, INPUT_MESSAGE_TAG);
+        try {
+            final String playerId = reader.playerRef();
+            if (playerId == null) {
+                throw new IOException("Player not in the roster yet");
+            }
+            return new InputMessage(playerId, reader.buffer.getLong(), reader.buffer.getDouble(),
+                    reader.buffer.getDouble(), reader.buffer.getLong(), reader.buffer.getLong());
+        } catch (RuntimeException e) {
+            throw truncated(e);
+        }
+    }
+
+    @Override
+    public byte[] encodeRosterMessage(RosterMessage message) {
+        final Writer writer = writer(ROSTER_MESSAGE_TAG);
+        writer.putInt(message.playerId());
+        writer.string(message.name());
+        writer.put((byte) (message.reply() ? 1 : 0));
+        return writer.toBytes();
+    }
+
+    @Override
+    public RosterMessage decodeRosterMessage(byte[] bytes) throws IOException {
+        final Reader reader = reader(bytes, ROSTER_MESSAGE_TAG);
+        try {
+            return new RosterMessage(reader.buffer.getInt(), reader.string(), reader.buffer.get() != 0);
+        } catch (RuntimeException e) {
+            throw truncated(e);
+        }
+    }
+
+    @Override
+    public byte[] encodeEatMessage(EatMessage message) {
+        final Writer writer = writer(EAT_MESSAGE_TAG);
+        writer.putInt(message.eats().size());
+        for (EatEvent eat : message.eats()) {
+            writer.playerRef(eat.eaterId());
+            writer.put((byte) eat.eatenKind().ordinal());
+            if (eat.eatenKind() == EatEvent.Kind.FOOD) {
+                writer.string(eat.eatenId()); // Never through the roster, a player may have the same name
+            } else {
+                writer.playerRef(eat.eatenId());
+            }
+            writer.putDouble(eat.mass());
+        }
+        return writer.toBytes();
+    }
+
+    @Override
+    public EatMessage decodeEatMessage(byte[] bytes) throws IOException {
+        final Reader reader = reader(bytes, EAT_MESSAGE_TAG);
+        try {
+            return new EatMessage(reader.eats());
+        } catch (RuntimeException e) {
+            throw truncated(e);
+        }
+    }
+
+    private Writer writer(final byte tag) {
+        final Writer writer = new Writer(buffers.get());
+        writer.put(tag);
+        return writer;
+    }
+
+    private Reader reader(final byte[] bytes, final byte tag) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (!buffer.hasRemaining() || buffer.get() != tag) {
+            throw new IOException("Unexpected message tag, expected " + tag);
+        }
+        return new Reader(buffer, roster);
+    }
+
+    private static IOException truncated(final RuntimeException e) {
+        return new IOException("Malformed binary message", e);
+    }
+
+    private final class Writer {
+        private ByteBuffer buffer;
+
+        private Writer(final ByteBuffer buffer) {
+            this.buffer = buffer;
+            this.buffer.clear();
+        }
+
+        private void ensure(final int bytes) {
+            if (buffer.remaining() < bytes) {
+                final ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+                buffer.flip();
+                bigger.put(buffer);
+                buffer = bigger;
+                buffers.set(bigger);
+            }
+        }
+
+        private void put(final byte value) {
+            ensure(Byte.BYTES);
+            buffer.put(value);
+        }
+
+        private void putInt(final int value) {
+            ensure(Integer.BYTES);
+            buffer.putInt(value);
+        }
+
+        private void putLong(final long value) {
+            ensure(Long.BYTES);
+            buffer.putLong(value);
+        }
+
+        private void putDouble(final double value) {
+            ensure(Double.BYTES);
+            buffer.putDouble(value);
+        }
+
+        private void string(final String value) {
+            final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            ensure(Integer.BYTES + bytes.length);
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+
+        private void longs(final List<Long> values) {
+            ensure(Integer.BYTES + values.size() * Long.BYTES);
+            buffer.putInt(values.size());
+            values.forEach(buffer::putLong);
+        }
+
+        /**
+         * The roster id of the player, or {@link PlayerRoster#UNKNOWN} followed by the name.
+         */
+        private void playerRef(final String name) {
+            final int id = roster.idOf(name);
+            putInt(id);
+            if (id == PlayerRoster.UNKNOWN) {
+                string(name);
+            }
+        }
+
+        private void player(final Player player) {
+            playerRef(player.getId());
+            ensure(3 * Double.BYTES);
+            buffer.putDouble(player.getX());
+            buffer.putDouble(player.getY());
+            buffer.putDouble(player.getMass());
+        }
+
+        private void players(final List<Player> players) {
+            putInt(players.size());
+            players.forEach(this::player);
+        }
+
+        private void entity(final Entity entity) {
+            string(entity.getId());
+            ensure(3 * Double.BYTES);
+            buffer.putDouble(entity.getX());
+            buffer.putDouble(entity.getY());
+            buffer.putDouble(entity.getMass());
+        }
+
+        private void entities(final List<? extends Entity> entities) {
+            putInt(entities.size());
+            entities.forEach(this::entity);
+        }
+
+        private byte[] toBytes() {
+            return Arrays.copyOf(buffer.array(), buffer.position());
+        }
+    }
+
+    private static final class Reader {
+        private final ByteBuffer buffer;
+        private final PlayerRoster roster;
+
+        private Reader(final ByteBuffer buffer, final PlayerRoster roster) {
+            this.buffer = buffer;
+            this.roster = roster;
+        }
+
+        /**
+         * The name of the player, or null if its id is not in the roster, which then notes it as
+         * missing.
+         */
+        private String playerRef() {
+            final int id = buffer.getInt();
+            if (id == PlayerRoster.UNKNOWN) {
+                return string();
+            }
+            final String name = roster.nameOf(id);
+            if (name == null) {
+                roster.missing(id);
+            }
+            return name;
+        }
+
+        /**
+         * Like {@link #playerRef()}, with {@code #<id>} for a player not in the roster.
+         */
+        private String playerRefOrId() {
+            final int position = buffer.position();
+            final String name = playerRef();
+            return name != null ? name : "#" + buffer.getInt(position);
+        }
+
+        private List<String> playerRefs() {
+            final int size = buffer.getInt();
+            final List<String> names = new ArrayList<>(Math.min(size, buffer.remaining()));
+            for (int i = 0; i < size; i++) {
+                final String name = playerRef();
+                if (name != null) {
+                    names.add(name);
+                }
+            }
+            return names;
+        }
+
+        private String string() {
+            final int length = buffer.getInt();
+            if (length < 0 || length > buffer.remaining()) {
+                throw new BufferUnderflowException();
+            }
+            final String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+            return value;
+        }
+
+        private List<Long> longs() {
+            final int size = buffer.getInt();
+            final List<Long> values = new ArrayList<>(Math.min(size, buffer.remaining()));
+            for (int i = 0; i < size; i++) {
+                values.add(buffer.getLong());
+            }
+            return values;
+        }
+
+        private Player player() {
+            final String name = playerRef();
+            final double x = buffer.getDouble();
+            final double y = buffer.getDouble();
+            final double mass = buffer.getDouble();
+            return name == null ? null : new Player(name, x, y, mass);
+        }
+
+        private Food food() {
+            return new Food(string(), buffer.getDouble(), buffer.getDouble(), buffer.getDouble());
+        }
+
+        private List<Player> players() {
+            final int size = buffer.getInt();
+            final List<Player> players = new ArrayList<>(Math.min(size, buffer.remaining()));
+            for (int i = 0; i < size; i++) {
+                final Player player = player();
+                if (player != null) {
+                    players.add(player);
+                }
+            }
+            return players;
+        }
+
+        private List<Food> foods() {
+            final int size = buffer.getInt();
+            final List<Food> foods = new ArrayList<>(Math.min(size, buffer.remaining()));
+            for (int i = 0; i < size; i++) {
+                foods.add(food());
+            }
+            return foods;
+        }
+
+        private List<EatEvent> eats() {
+            final int size = buffer.getInt();
+            final List<EatEvent> eats = new ArrayList<>(Math.min(size, buffer.remaining()));
+            for (int i = 0; i < size; i++) {
+                final String eater = playerRefOrId();
+                final EatEvent.Kind kind = EatEvent.Kind.values()[buffer.get()];
+                final String eaten = kind == EatEvent.Kind.FOOD ? string() : playerRefOrId();
+                eats.add(new EatEvent(eater, kind, eaten, buffer.getDouble()));
+            }
+            return eats;
+        }
+    }
+}
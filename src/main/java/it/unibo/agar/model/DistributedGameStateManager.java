@@ -1,271 +1,745 @@
 package it.unibo.agar.model;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.rabbitmq.client.*;
-import it.unibo.agar.Main;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.*;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeoutException;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
 
+/**
+ * Game state of a node. The state is owned by the thread calling {@link #tick()}: transport
+ * callbacks and {@link #setPlayerDirection} only enqueue events on a lock-free inbox, which the
+ * tick drains before simulating, and readers get the immutable world published at the end of the
+ * last tick.
+ * <p>
+ * The map is split into zones, each with its own elected authority. Every node owns position and
+ * mass of its player; the authority of a zone owns the foods in it, resolves every eat whose
+ * target is in the zone and publishes the regions of the zone. Since the target decides, an eat
+ * across a zone border is resolved by exactly one node, and as no player state lives with the
+ * authorities, a player crossing a border needs no handoff: the next zone starts publishing it
+ * from its position messages. Eaters are credited through the {@link EatMessage}s the authority
+ * sends on a reliable channel, apart from the world messages which may be dropped or conflated, so
+ * that no eat is lost and an eaten player always learns it. Foods are handed over with the replica
+ * of the zone when its authority changes. Foods are spawned by a {@link FoodField} with the same
+ * seed on every node, so all the nodes start with the same ones and the world messages only carry
+ * food ids.
+ * <p>
+ * On the wire players are referred to by the compact id of the {@link PlayerRoster}. Every node
+ * picks the id of its player at random when it joins, so ids do not depend on any authority, and
+ * announces it once with the name; the nodes that did not know it reply with their own, and a node
+ * meeting an id whose announcement it missed asks for it. Should two players pick the same id, the
+ * one with the greater name picks another. The announcement is also the join request: every
+ * authority answers with a snapshot of its regions, sent to the newcomer alone with the sequence of
+ * its updates, so the newcomer takes the world from the authorities from its first ticks. A region
+ * whose snapshot was lost is only waited for until its next keyframe.
+ * <p>
+ * The updates of a zone are the heartbeat of its authority. The standby of the zone, the live node
+ * that would win its next election, keeps a replica of the whole zone and takes it over as soon as
+ * a phi accrual failure detector suspects the authority; any other node runs an election only if
+ * the zone stays silent for {@link #WORLD_TIMEOUT_MS}.
+ */
 public class DistributedGameStateManager implements GameStateManager{
     private static Logger LOGGER = LoggerFactory.getLogger(DistributedGameStateManager.class);
     private static final int MIN_FOOD_ON_THE_MAP = 15;
+    private static final int FOOD_REFILL = 5;
     private static final double PLAYER_SPEED = 1.0;
     private static final int HEIGHT = 1000;
     private static final int WIDTH = 1000;
     private static final int N_OF_FOOD = 20;
-    private static final long WORLD_TIMEOUT_MS = 1000;
+    private static final long WORLD_TIMEOUT_MS = 1000; // Election by any node, if the standby did not take over
+    private static final double PHI_THRESHOLD = 8; // Takeover by the standby
     private static final long PLAYER_TIMEOUT_MS = 3000;
+    private static final long ROSTER_QUERY_INTERVAL_MS = 1000; // Between two queries of the same missing id
+    private static final int KEYFRAME_INTERVAL = 20; // One keyframe of every region every 20 world updates
+    private static final long DEFAULT_BROADCAST_INTERVAL_MS = 50;
+    private static final long TICK_STALL_MS = 2 * DEFAULT_BROADCAST_INTERVAL_MS; // Less than the takeover by the standby
+    private static final double REGION_SIZE = 250;
+    private static final double ZONE_SIZE = 500; // A multiple of REGION_SIZE, so that every region is in one zone
+    private static final double INTEREST_RANGE = 450; // Covers the local view, must not be less than REGION_SIZE
+    private static final long INTERPOLATION_DELAY_MS = 100; // Two world updates at 20 Hz, so one can be late
+    private static final long MAX_EXTRAPOLATION_MS = 250;
+    private static final int RENDER_SNAPSHOTS = 32;
+    private static final long RENDER_TIME_STEP_MS = 4; // Finer than a frame at any sensible frame rate
     public static final int WINNING_MASS = 1000;
     public static final int FOOD_MASS = 150;
+    public static final String BROADCAST_INTERVAL_PROPERTY = "agar.broadcastIntervalMs";
+    public static final String SEED_PROPERTY = "agar.seed"; // Must be the same on all the nodes
+    static final long DEFAULT_SEED = 0x5EEDL;
 
     private final String playerName;
-    private World world;
-    private final Map<String, Position> playerDirections;
+    private final SimulationKernel kernel;
     private final Serializer serializer;
+    private final PlayerRoster roster = new PlayerRoster();
+    private String snapshotKey; // Bound to receive the snapshots of the authorities when joining
+    private final ReentrantLock announceLock = new ReentrantLock(); // Not a monitor, that would pin a virtual thread
+    private final Map<Integer, Long> rosterQueries = new HashMap<>(); // Missing ids asked for, by time of the query
     private final ElectionNode electionNode;
-    private int firstTurn = 0;
-    private long lastWorldMessageTimestamp = System.currentTimeMillis();
+    private volatile World publishedWorld;
+    private final SnapshotBuffer renderSnapshots = new SnapshotBuffer(RENDER_SNAPSHOTS, MAX_EXTRAPOLATION_MS,
+            RENDER_TIME_STEP_MS);
+    private volatile RenderFrame renderFrame; // The last render world, reused while its parts are the same
+    private boolean remoteUpdated = false;
+    private final MapRegions mapRegions = new MapRegions(WIDTH, HEIGHT, REGION_SIZE);
+    private final MapRegions zones = new MapRegions(WIDTH, HEIGHT, ZONE_SIZE);
+    private final int[] regionZones = new int[mapRegions.count()];
+    private final PhiAccrualFailureDetector zoneFailureDetector =
+            new PhiAccrualFailureDetector(zones.count(), 100, 20, 50, 2 * DEFAULT_BROADCAST_INTERVAL_MS);
+    private BitSet zonesOfInterest = new BitSet();
+    private BitSet standbyZones = new BitSet();
+    private CompletableFuture<Boolean> zoneElection; // The tick goes on while it runs
+    private BitSet ownedZones = new BitSet();
+    private final List<EatEvent> eats = new ArrayList<>();
+    private final Set<String> eatenPlayers = new HashSet<>(); // Their late position messages are ignored
+    private final World[] regionReplicas = new World[mapRegions.count()];
+    private final long[] replicaFoodEpochs = new long[mapRegions.count()];
+    private final long[] foodEpochs = new long[mapRegions.count()]; // Latest spawn epoch known of each region
+    private final long[] regionSequences = new long[mapRegions.count()];
+    private boolean replicaChanged = false;
+    private BitSet interest = new BitSet();
+    private boolean wholeMapInterest = false;
+    private final WorldBroadcaster worldBroadcaster;
+    private final List<byte[]> drainedWorldMessages = new ArrayList<>(); // Decoded by the tick
+    private final FoodField foodField;
     private final Map<String, Long> lastPlayerPositionTimestamp;
-    private final RabbitMQConnector connector;
+    private final Queue<Runnable> inbox = new ConcurrentLinkedQueue<>(); // Events applied by the tick thread
+    private final Map<String, Player> drainedPlayers = new HashMap<>(); // Latest message of each player
+    private final Transport transport;
+    private final GameMetrics metrics;
+    private final boolean ownsMetrics;
     private final Boolean debug;
+    private final IntSupplier playerIds; // The id of the player when it joins, and after every clash
+    private final LongSupplier clock; // Milliseconds, only compared with each other
+    private volatile long lastTickAt = 0; // Not ticking yet
+    private volatile Consumer<String> victoryListener = winner -> { };
 
     public DistributedGameStateManager(String hostAddress, String playerName, Boolean debug) throws IOException,
-            TimeoutException, ExecutionException, InterruptedException {
+            TimeoutException {
+        this(connect(hostAddress), playerName, debug);
+    }
+
+    public DistributedGameStateManager(Transport transport, String playerName, Boolean debug) throws IOException {
+        this(transport, playerName, debug, null, null);
+    }
+
+    /**
+     * A node sharing its timers and metrics with the other nodes of the same JVM, e.g. the bots of
+     * a load test. Elections and world broadcasts run on the scheduler, which must run one task at
+     * a time; either can be null for one of the node's own.
+     */
+    public DistributedGameStateManager(Transport transport, String playerName, Boolean debug,
+                                       ScheduledExecutorService scheduler, GameMetrics metrics) throws IOException {
+        this(transport, playerName, debug, scheduler, metrics, PlayerRoster::randomId, System::currentTimeMillis);
+    }
+
+    /**
+     * A node replaying a recorded session, which takes the ids of its player from the recording
+     * and its time from the clock of the scheduler, so that it behaves as it did when recorded.
+     */
+    public DistributedGameStateManager(Transport transport, String playerName, Boolean debug,
+                                       ScheduledExecutorService scheduler, GameMetrics metrics,
+                                       IntSupplier playerIds, LongSupplier clock) throws IOException {
         this.debug = debug;
+        this.playerIds = playerIds;
+        this.clock = clock;
+        this.playerName = playerName;
         lastPlayerPositionTimestamp = new HashMap<>();
-        this.connector = new RabbitMQConnector();
-        this.serializer = new Serializer();
-        this.world = new World(WIDTH, HEIGHT, List.of(new Player(playerName,200,200,200)),
-                GameInitializer.initialFoods(N_OF_FOOD, WIDTH, HEIGHT, FOOD_MASS));
-        this.connector.connect(hostAddress);
-        this.electionNode = new ElectionNode(playerName, this.connector, false);
-        this.connector.setPlayerMessageCallback(this.updatePlayerMessageCallback());
-        this.connector.setWorldMessageCallback(this.updateWorldMessageCallback());
-        this.connector.setVictoryMessageCallback(this.victoryMessageCallback());
-        Future<Boolean> fut = electionNode.startElection();
+        this.ownsMetrics = metrics == null;
+        this.metrics = metrics != null ? metrics : new GameMetrics(playerName).start();
+        this.transport = new MeteredTransport(record(transport, playerName), this.metrics);
+        this.roster.put(playerIds.getAsInt(), playerName);
+        this.serializer = new Serializer(this.roster);
+        this.foodField = new FoodField(Long.getLong(SEED_PROPERTY, DEFAULT_SEED), this.mapRegions, FOOD_MASS,
+                Math.ceilDiv(N_OF_FOOD, this.mapRegions.count()), Math.ceilDiv(FOOD_REFILL, this.mapRegions.count()));
+        Arrays.fill(this.foodEpochs, 1); // The initial foods are the first epoch
+        this.kernel = new SimulationKernel(new World(WIDTH, HEIGHT, List.of(new Player(playerName,200,200,200)),
+                this.foodField.initialFoods()));
+        this.publishedWorld = this.kernel.snapshot();
+        for (int region = 0; region < regionZones.length; region++) {
+            regionZones[region] = zones.regionOf(mapRegions.centerX(region), mapRegions.centerY(region));
+        }
+        this.electionNode = new ElectionNode(playerName, zones.count(), this.transport, false, scheduler);
+        this.electionNode.setHealthCheck(() -> this.lastTickAt == 0
+                || this.clock.getAsLong() - this.lastTickAt < TICK_STALL_MS);
+        this.worldBroadcaster = new WorldBroadcaster(playerName, this.transport, this.serializer, this.metrics,
+                this.mapRegions, this.foodField, this.regionZones, KEYFRAME_INTERVAL,
+                Long.getLong(BROADCAST_INTERVAL_PROPERTY, DEFAULT_BROADCAST_INTERVAL_MS), scheduler, clock);
+        this.transport.subscribe(TransportChannel.PLAYER, this::onPlayerMessage);
+        this.transport.subscribe(TransportChannel.WORLD, this::onWorldMessage);
+        this.transport.subscribe(TransportChannel.VICTORY, this::onVictoryMessage);
+        this.transport.subscribe(TransportChannel.ROSTER, this::onRosterMessage);
+        this.transport.subscribe(TransportChannel.EAT, this::onEatMessage);
+        updateInterest(this.kernel.findPlayer(playerName)); // The snapshots only fill the regions of interest
+        announce(false);
+        this.zoneElection = startElection(this.zones.all());
         if (debug)
-            LOGGER.info("[{}] AM I THE LEADER -> {}", playerName, fut.get());
-        this.playerName = playerName;
-        this.playerDirections = new HashMap<>();
-        this.world.getPlayers().forEach(p -> playerDirections.put(p.getId(), Position.ZERO));
+            this.zoneElection.thenAccept(won -> LOGGER.info("[{}] AM I THE LEADER -> {}", playerName, won));
     }
 
-    public DeliverCallback victoryMessageCallback() {
-        return (consumerTag, delivery) -> {
-            String message = new String(delivery.getBody(), StandardCharsets.UTF_8);
-            if (debug)
-                LOGGER.info("[{}] I WIN", message);
-            Main.onVictory(message);
-            this.connector.victoryChannelAck(delivery);
-        };
+    private static Transport connect(String hostAddress) throws IOException, TimeoutException {
+        RabbitMQConnector connector = new RabbitMQConnector();
+        connector.connect(hostAddress);
+        return connector;
     }
 
-    public DeliverCallback updateWorldMessageCallback() {
-        return (consumerTag, delivery) -> {
-            lastWorldMessageTimestamp = System.currentTimeMillis();
-            String message = new String(delivery.getBody(), StandardCharsets.UTF_8);
-            if (debug)
-                LOGGER.info("[{}] RECEIVED WORLD MESSAGE -> {}", playerName, message);
-            if (firstTurn <= 100) {
-                firstTurn++;
-            }
-            try {
-                if (firstTurn > 100) {
-                    this.world = serializer.deserializeWorld(message);
-                } else {
-                    World newWorld = serializer.deserializeWorld(message);
-                    this.world = new World(WIDTH, HEIGHT, this.world.getPlayers(),
-                            newWorld.getFoods());
+    /**
+     * Records the session of the node if {@link SessionRecorder#DIRECTORY_PROPERTY} is set.
+     */
+    private static Transport record(Transport transport, String playerName) throws IOException {
+        final String directory = System.getProperty(SessionRecorder.DIRECTORY_PROPERTY);
+        if (directory == null) {
+            return transport;
+        }
+        final Path file = Path.of(directory, playerName + "-" + System.currentTimeMillis() + ".session");
+        LOGGER.info("[{}] Recording the session to {}", playerName, file);
+        return new RecordingTransport(transport, new SessionRecorder(file, playerName));
+    }
+
+    /**
+     * Announces the id of the player, first binding the key of the snapshots sent to that id.
+     */
+    private void announce(boolean reply) throws IOException {
+        this.announceLock.lock();
+        try {
+            final int id = this.roster.idOf(this.playerName);
+            final String snapshotKey = WorldBroadcaster.snapshotKey(id);
+            if (!snapshotKey.equals(this.snapshotKey)) {
+                this.transport.bind(TransportChannel.WORLD, snapshotKey);
+                if (this.snapshotKey != null) {
+                    this.transport.unbind(TransportChannel.WORLD, this.snapshotKey); // The id clashed with another
                 }
-            } catch (JsonProcessingException e) {
-                if (debug)
-                    LOGGER.error("[{}] ERROR -> {}", playerName, e.getMessage());
+                this.snapshotKey = snapshotKey;
+            }
+            final RosterMessage message = new RosterMessage(id, this.playerName, reply);
+            this.transport.publish(TransportChannel.ROSTER, this.serializer.serializeRosterMessage(message));
+        } finally {
+            this.announceLock.unlock();
+        }
+    }
+
+    private void onRosterMessage(byte[] body) throws IOException {
+        final RosterMessage message = serializer.deserializeRosterMessage(body);
+        if (message.isQuery()) {
+            if (message.playerId() == this.roster.idOf(this.playerName)) {
+                announce(true);
+            }
+            return;
+        }
+        if (message.name().equals(this.playerName)) {
+            return;
+        }
+        if (!message.reply() && this.electionNode.isLeader()) {
+            this.worldBroadcaster.sendSnapshot(message.playerId());
+        }
+        if (message.playerId() == this.roster.idOf(this.playerName)) {
+            if (this.playerName.compareTo(message.name()) < 0) {
+                announce(false); // Keeps the id, the other player picks a new one when it hears this
+                return;
             }
-            this.connector.worldChannelAck(delivery);
-        };
+            this.roster.put(this.playerIds.getAsInt(), this.playerName);
+            this.roster.put(message.playerId(), message.name());
+            announce(false);
+            if (debug)
+                LOGGER.info("[{}] ID CLASH WITH {}, NOW {}", playerName, message.name(), this.roster.idOf(playerName));
+        } else if (this.roster.put(message.playerId(), message.name()) && !message.reply()) {
+            announce(true); // A newcomer, or a player with a new id
+        }
+    }
+
+    private void onVictoryMessage(byte[] body) {
+        String message = new String(body, StandardCharsets.UTF_8);
+        if (debug)
+            LOGGER.info("[{}] I WIN", message);
+        victoryListener.accept(message);
+    }
+
+    public void setVictoryListener(Consumer<String> victoryListener) {
+        this.victoryListener = victoryListener;
+    }
+
+    public GameMetrics metrics() {
+        return this.metrics;
     }
 
-    public DeliverCallback updatePlayerMessageCallback() {
-        return (consumerTag, delivery) -> {
+    /**
+     * Leaves the game: stops elections and broadcasts, then closes the transport and the metrics
+     * of the node, if they are not shared. The tick must not be called any more.
+     */
+    public void close() throws IOException {
+        this.electionNode.close();
+        this.worldBroadcaster.close();
+        this.transport.close();
+        if (this.ownsMetrics) {
+            this.metrics.close();
+        }
+    }
+
+    /**
+     * Queues an event for the tick thread, recording how long it waits there.
+     */
+    private void enqueue(Runnable event) {
+        final long queuedAt = System.nanoTime();
+        this.inbox.add(() -> {
+            this.metrics.recordSince(GameMetrics.Metric.QUEUE_LAG, queuedAt);
+            event.run();
+        });
+    }
+
+    private CompletableFuture<Boolean> startElection(BitSet zones) {
+        final long start = System.nanoTime();
+        final CompletableFuture<Boolean> election = this.electionNode.startElection(zones);
+        election.whenComplete((won, e) -> this.metrics.recordSince(GameMetrics.Metric.ELECTION, start));
+        return election;
+    }
+
+    /**
+     * Whether this node is the authority of at least one zone.
+     */
+    public boolean isLeader() {
+        return electionNode.isLeader();
+    }
+
+    /**
+     * Receives the updates of every region of the map instead of only the ones around the player,
+     * for views showing the whole map.
+     */
+    public void subscribeToWholeMap() {
+        enqueue(() -> this.wholeMapInterest = true);
+    }
+
+    private void onWorldMessage(byte[] body) {
+        if (debug)
+            LOGGER.info("[{}] RECEIVED WORLD MESSAGE -> {} bytes", playerName, body.length);
+        enqueue(() -> this.drainedWorldMessages.add(body));
+    }
+
+    /**
+     * Applies the world messages received since the last tick. A keyframe makes the previous
+     * messages of its region stale, so of those only the header is decoded, for the heartbeat.
+     */
+    private void applyWorldMessages(long receivedAt) {
+        final List<WorldMessage.Header> headers = new ArrayList<>(this.drainedWorldMessages.size());
+        final int[] lastKeyframes = new int[regionReplicas.length];
+        Arrays.fill(lastKeyframes, -1);
+        for (byte[] body : this.drainedWorldMessages) {
+            WorldMessage.Header header = null;
+            final long decodeStart = System.nanoTime();
             try {
-                String message = new String(delivery.getBody(), StandardCharsets.UTF_8);
+                header = serializer.deserializeWorldMessageHeader(body);
+                this.metrics.recordSince(GameMetrics.Metric.DECODE, decodeStart);
+            } catch (IOException e) {
                 if (debug)
-                    LOGGER.info("[{}] RECEIVED PLAYER MESSAGE -> {}", playerName, message);
-                Player player = serializer.deserializePlayer(message);
-                this.lastPlayerPositionTimestamp.put(player.getId(), System.currentTimeMillis());
-                if (firstTurn <= 100 || electionNode.isLeader()) {
-                    if (!player.getId().equals(this.playerName)) {
-                        this.world = updatePlayerPosition(player);
-                    }
-                }
-            } catch (JsonProcessingException e) {
+                    LOGGER.error("[{}] ERROR -> {}", playerName, e.getMessage());
+            }
+            if (header != null && (header.region() < 0 || header.region() >= regionReplicas.length)) {
+                header = null;
+            }
+            if (header != null && header.isKeyframe()) {
+                lastKeyframes[header.region()] = headers.size();
+            }
+            headers.add(header);
+        }
+        for (int i = 0; i < headers.size(); i++) {
+            final WorldMessage.Header header = headers.get(i);
+            if (header == null) {
+                continue;
+            }
+            this.zoneFailureDetector.heartbeat(regionZones[header.region()], receivedAt);
+            if (!interest.get(header.region()) || i < lastKeyframes[header.region()]) {
+                continue; // Still in flight when the region was dropped, or superseded by a keyframe
+            }
+            try {
+                final long decodeStart = System.nanoTime();
+                final WorldMessage message = serializer.deserializeWorldMessage(this.drainedWorldMessages.get(i));
+                this.metrics.recordSince(GameMetrics.Metric.DECODE, decodeStart);
+                applyWorldMessage(message);
+            } catch (IOException e) {
                 if (debug)
                     LOGGER.error("[{}] ERROR -> {}", playerName, e.getMessage());
             }
-            this.connector.playerChannelAck(delivery);
-        };
+        }
+        this.drainedWorldMessages.clear();
     }
 
-    @Override
-    public World getWorld() {
-        return this.world;
+    private void applyWorldMessage(WorldMessage worldMessage) {
+        final int region = worldMessage.region();
+        final World replica = regionReplicas[region];
+        if (worldMessage.isKeyframe() || (replica != null && worldMessage.sequence() == regionSequences[region] + 1)) {
+            this.regionReplicas[region] = worldMessage.applyTo(replica, this.replicaFoodEpochs[region], this.foodField);
+            this.regionSequences[region] = worldMessage.sequence();
+            this.replicaFoodEpochs[region] = worldMessage.foodEpoch();
+            this.foodEpochs[region] = Math.max(this.foodEpochs[region], worldMessage.foodEpoch());
+            this.replicaChanged = true;
+        } else if (debug) {
+            // A delta was lost or arrived before the first keyframe, wait for the next keyframe
+            LOGGER.info("[{}] SKIPPED WORLD DELTA {} OF REGION {}", playerName, worldMessage.sequence(), region);
+        }
     }
 
-    @Override
-    public void setPlayerDirection(String playerId, double dx, double dy) {
-        if (world.getPlayerById(playerId).isPresent()) {
-            this.playerDirections.put(playerId, Position.of(dx, dy));
+    private void onEatMessage(byte[] body) {
+        try {
+            final EatMessage message = serializer.deserializeEatMessage(body);
+            enqueue(() -> message.eats().forEach(this::applyEat));
+        } catch (IOException e) {
+            if (debug)
+                LOGGER.error("[{}] ERROR -> {}", playerName, e.getMessage());
         }
     }
 
-    @Override
-    public void tick() throws IOException, ExecutionException, InterruptedException {
-        this.world = moveAllPlayers(this.world);
-        Optional<Player> player = this.world.getPlayerById(this.playerName);
-        String message;
-        if (checkIfLeaderIsDeath()) {
-            Future<Boolean> fut = this.electionNode.startElection();
-            if (debug)
-                LOGGER.info("[{}] AM I THE LEADER -> {}", playerName, fut.get());
-            this.lastWorldMessageTimestamp = System.currentTimeMillis();
+    private void applyEat(EatEvent eat) {
+        if (eat.eaterId().equals(this.playerName)) {
+            this.kernel.addMass(this.playerName, eat.mass());
         }
-        if (player.isPresent()) {
-            message = serializer.serializeObject(player.get());
-        } else {
-            message = "";
+        if (eat.eatenKind() == EatEvent.Kind.PLAYER
+                && (eat.eatenId().equals(this.playerName) || this.kernel.hasPlayer(eat.eatenId()))) {
+            this.kernel.removePlayer(eat.eatenId());
+            this.eatenPlayers.add(eat.eatenId());
         }
-        this.connector.publishPlayerMessage(message);
-        if (electionNode.isLeader()) {
-            this.lastPlayerPositionTimestamp.forEach(this::removeInactivePlayers);
-            this.world = this.handleEating(this.world);
-            this.world = checkIfThereIsEnoughFood(this.world);
-            String worldMessage = serializer.serializeObject(this.world);
-            this.connector.publishWorldMessage(worldMessage);
-            if (isThereAWinner()) {
-                this.connector.publishVictoryMessage(getWinnerName());
+    }
+
+    /**
+     * Union of the replicas of the regions of interest that are not in an owned zone, with the
+     * player of this node, whose state is owned here. An entity moving across two regions may be in
+     * both for a moment, so players are deduplicated by id.
+     */
+    private World replica() {
+        final Map<String, Player> players = new LinkedHashMap<>();
+        final List<Food> foods = new ArrayList<>();
+        for (int region = interest.nextSetBit(0); region >= 0; region = interest.nextSetBit(region + 1)) {
+            if (regionReplicas[region] != null && !ownedZones.get(regionZones[region])) {
+                regionReplicas[region].getPlayers().forEach(p -> players.put(p.getId(), p));
+                foods.addAll(regionReplicas[region].getFoods());
             }
         }
+        players.remove(this.playerName);
+        this.eatenPlayers.forEach(players::remove);
+        this.kernel.findPlayer(this.playerName).ifPresent(p -> players.put(p.getId(), p));
+        return new World(WIDTH, HEIGHT, new ArrayList<>(players.values()), foods);
     }
 
-    private String getWinnerName() {
-        return this.world.getPlayers().stream().filter(p -> p.getMass() >= WINNING_MASS)
-                .toList().getFirst().getId();
+    private void onPlayerMessage(byte[] body) {
+        try {
+            final long decodeStart = System.nanoTime();
+            Player player = serializer.deserializePlayer(body);
+            this.metrics.recordSince(GameMetrics.Metric.DECODE, decodeStart);
+            if (debug)
+                LOGGER.info("[{}] RECEIVED PLAYER MESSAGE -> {}", playerName, player.getId());
+            enqueue(() -> this.drainedPlayers.put(player.getId(), player));
+        } catch (IOException e) {
+            if (debug)
+                LOGGER.error("[{}] ERROR -> {}", playerName, e.getMessage());
+        }
     }
 
-    private boolean isThereAWinner() {
-        return this.world.getPlayers().stream().anyMatch(p -> p.getMass() >= WINNING_MASS);
+    @Override
+    public World getWorld() {
+        return this.publishedWorld;
     }
 
-    private World checkIfThereIsEnoughFood(World world) {
-        if (world.getFoods().size() < MIN_FOOD_ON_THE_MAP) {
-            return new World(world.getWidth(),
-                    world.getHeight(),
-                    world.getPlayers(),
-                    Stream.concat(world.getFoods().stream(),
-                            GameInitializer.initialFoods(5, WIDTH, HEIGHT, FOOD_MASS)
-                                    .stream()).toList());
+    /**
+     * The world as it was {@link #INTERPOLATION_DELAY_MS} ago, with the other players interpolated
+     * between the updates received around that time, and the player of this node where it is now,
+     * so that its movement shows without delay. The same world is returned while neither changed.
+     */
+    @Override
+    public World getRenderWorld() {
+        final World current = this.publishedWorld;
+        final World past = this.renderSnapshots.sample(this.clock.getAsLong() - INTERPOLATION_DELAY_MS);
+        if (past == null) {
+            return current;
+        }
+        final Player player = current.getPlayerById(this.playerName).orElse(null);
+        final RenderFrame frame = this.renderFrame;
+        if (frame != null && frame.past() == past && frame.player() == player) {
+            return frame.world();
         }
+        final List<Player> players = new ArrayList<>(past.getPlayers().size());
+        past.getPlayers().stream().filter(p -> !p.getId().equals(this.playerName)).forEach(players::add);
+        if (player != null) {
+            players.add(player);
+        }
+        final World world = new World(past.getWidth(), past.getHeight(), players, past.getFoods());
+        this.renderFrame = new RenderFrame(past, player, world);
         return world;
     }
 
-    private void removeInactivePlayers(String playerId, long lastTimestamp) {
-        if (System.currentTimeMillis() - lastTimestamp > PLAYER_TIMEOUT_MS) {
-            this.world = new World(this.world.getWidth(),
-                    this.world.getHeight(),
-                    this.world.getPlayers().stream().filter(p -> !p.getId().equals(playerId)).toList(),
-                    this.world.getFoods());
-        }
-    }
+    private record RenderFrame(World past, Player player, World world) { }
 
-    private boolean checkIfLeaderIsDeath() {
-        return System.currentTimeMillis() - this.lastWorldMessageTimestamp > WORLD_TIMEOUT_MS;
+    @Override
+    public void setPlayerDirection(String playerId, double dx, double dy) {
+        enqueue(() -> this.kernel.setDirection(playerId, dx, dy));
     }
 
-    private World handleEating(final World currentWorld) {
-        final List<Player> updatedPlayers = currentWorld.getPlayers().stream()
-                .map(player -> growPlayer(currentWorld, player))
-                .toList();
-
-        final List<Food> foodsToRemove = currentWorld.getPlayers().stream()
-                .flatMap(player -> eatenFoods(currentWorld, player).stream())
-                .distinct()
-                .toList();
-
-        final List<Player> playersToRemove = currentWorld.getPlayers().stream()
-                .flatMap(player -> eatenPlayers(currentWorld, player).stream())
-                .distinct()
-                .toList();
-
-        return new World(currentWorld.getWidth(), currentWorld.getHeight(), updatedPlayers, currentWorld.getFoods())
-                .removeFoods(foodsToRemove)
-                .removePlayers(playersToRemove);
+    @Override
+    public void tick() throws IOException {
+        final long tickStart = System.nanoTime();
+        this.lastTickAt = this.clock.getAsLong();
+        this.ownedZones = this.electionNode.ownedZones();
+        drainInbox();
+        queryMissingPlayers();
+        this.metrics.recordSince(GameMetrics.Metric.DRAIN, tickStart);
+        final long moveStart = System.nanoTime();
+        this.kernel.move(PLAYER_SPEED);
+        this.metrics.recordSince(GameMetrics.Metric.MOVE, moveStart);
+        Optional<Player> player = this.kernel.findPlayer(this.playerName);
+        this.standbyZones = standbyZones();
+        updateInterest(player);
+        checkZoneAuthorities();
+        if (player.isPresent()) {
+            final long serializeStart = System.nanoTime();
+            final byte[] playerMessage = serializer.serializePlayer(player.get());
+            this.metrics.recordSince(GameMetrics.Metric.SERIALIZE, serializeStart);
+            this.transport.publish(TransportChannel.PLAYER, playerMessage);
+        }
+        if (!this.ownedZones.isEmpty()) {
+            this.lastPlayerPositionTimestamp.forEach(this::removeInactivePlayers);
+            final World beforeEating = this.kernel.snapshot();
+            final long eatStart = System.nanoTime();
+            this.kernel.eat(this.zones, this.ownedZones, this.eats);
+            this.metrics.recordSince(GameMetrics.Metric.EAT, eatStart);
+            final long refillStart = System.nanoTime();
+            checkIfThereIsEnoughFood();
+            this.metrics.recordSince(GameMetrics.Metric.FOOD_REFILL, refillStart);
+            this.worldBroadcaster.offer(new WorldBroadcaster.Update(this.kernel.snapshot(), this.foodEpochs.clone(),
+                    this.ownedZones));
+            publishEats(beforeEating);
+            Optional<String> winner = this.kernel.findPlayerWithMass(WINNING_MASS);
+            if (winner.isPresent() && ownsPositionOf(winner.get())) {
+                this.transport.publish(TransportChannel.VICTORY, winner.get().getBytes(StandardCharsets.UTF_8));
+            }
+        } else {
+            this.worldBroadcaster.offer(new WorldBroadcaster.Update(this.kernel.snapshot(), this.foodEpochs.clone(),
+                    this.ownedZones));
+        }
+        this.publishedWorld = this.kernel.snapshot();
+        if (this.remoteUpdated) {
+            this.renderSnapshots.add(this.clock.getAsLong(), this.publishedWorld);
+            this.remoteUpdated = false;
+        }
+        this.metrics.recordSince(GameMetrics.Metric.TICK, tickStart);
     }
 
-    private Player growPlayer(final World world, final Player player) {
-        final Player afterFood = eatenFoods(world, player).stream()
-                .reduce(player, Player::grow, (p1, p2) -> p1);
+    /**
+     * Applies the queued events in arrival order; player messages are batched, so only the latest
+     * position of each player is applied, and world messages made stale by a keyframe are skipped.
+     */
+    private void drainInbox() {
+        Runnable event;
+        while ((event = this.inbox.poll()) != null) {
+            event.run();
+        }
+        final long now = this.clock.getAsLong();
+        applyWorldMessages(now);
+        this.remoteUpdated = this.replicaChanged;
+        if (this.replicaChanged) {
+            if (!this.ownedZones.isEmpty()) {
+                // Players come from their own messages, only the foods of the other zones are replicated
+                final List<Food> foods = new ArrayList<>(replica().getFoods());
+                this.kernel.snapshot().getFoods().stream()
+                        .filter(f -> this.ownedZones.get(this.zones.regionOf(f.getX(), f.getY())))
+                        .forEach(foods::add);
+                this.kernel.loadFoods(foods);
+            } else {
+                this.kernel.load(replica());
+            }
+        }
+        this.replicaChanged = false;
+        final boolean acceptPositions = !this.ownedZones.isEmpty();
+        for (Player player : this.drainedPlayers.values()) {
+            this.lastPlayerPositionTimestamp.put(player.getId(), now);
+            if (acceptPositions && !player.getId().equals(this.playerName) && !this.eatenPlayers.contains(player.getId())) {
+                this.kernel.upsertPlayer(player);
+                this.remoteUpdated = true;
+            }
+        }
+        this.drainedPlayers.clear();
+    }
 
-        return eatenPlayers(world, afterFood).stream()
-                .reduce(afterFood, Player::grow, (p1, p2) -> p1);
+    /**
+     * Asks who the players are whose id was met on the wire before its announcement: their updates
+     * are left out until then, which would leave the removed ones in the replicas.
+     */
+    private void queryMissingPlayers() throws IOException {
+        final long now = this.clock.getAsLong();
+        this.rosterQueries.values().removeIf(askedAt -> now - askedAt > ROSTER_QUERY_INTERVAL_MS);
+        for (int id : this.roster.takeMissing()) {
+            if (this.rosterQueries.putIfAbsent(id, now) == null) {
+                if (debug)
+                    LOGGER.info("[{}] UNKNOWN PLAYER ID {}, ASKING WHO IT IS", playerName, id);
+                this.transport.publish(TransportChannel.ROSTER,
+                        this.serializer.serializeRosterMessage(RosterMessage.query(id)));
+            }
+        }
     }
 
-    private List<Food> eatenFoods(final World world, final Player player) {
-        return world.getFoods().stream()
-                .filter(food -> EatingManager.canEatFood(player, food))
-                .toList();
+    /**
+     * Sends the eats of this tick to every node, the eater and the eaten player among them. Eaten
+     * players are remembered, so that their position messages still in flight do not bring them back.
+     */
+    private void publishEats(World beforeEating) throws IOException {
+        if (this.eats.isEmpty()) {
+            return;
+        }
+        final Set<String> players = new HashSet<>();
+        beforeEating.getPlayers().forEach(p -> players.add(p.getId()));
+        for (EatEvent eat : this.eats) {
+            if (eat.eatenKind() == EatEvent.Kind.PLAYER && players.contains(eat.eatenId())) {
+                this.eatenPlayers.add(eat.eatenId());
+            }
+        }
+        this.transport.publish(TransportChannel.EAT, this.serializer.serializeEatMessage(new EatMessage(this.eats)));
+        this.remoteUpdated = true;
+        this.eats.clear();
     }
 
-    private List<Player> eatenPlayers(final World world, final Player player) {
-        return world.getPlayersExcludingSelf(player).stream()
-                .filter(other -> EatingManager.canEatPlayer(player, other))
-                .toList();
+    /**
+     * Takes over the standby zones whose authority is suspected by the failure detector, and runs
+     * the election of the other zones of interest whose authority has been silent for too long.
+     */
+    private void checkZoneAuthorities() {
+        final long now = this.clock.getAsLong();
+        final BitSet failed = new BitSet();
+        final BitSet orphaned = new BitSet();
+        for (int zone = zonesOfInterest.nextSetBit(0); zone >= 0; zone = zonesOfInterest.nextSetBit(zone + 1)) {
+            if (this.ownedZones.get(zone)) {
+                continue;
+            }
+            if (this.standbyZones.get(zone) && this.zoneFailureDetector.phi(zone, now) > PHI_THRESHOLD) {
+                failed.set(zone);
+            } else if (now - this.zoneFailureDetector.lastHeartbeat(zone) > WORLD_TIMEOUT_MS) {
+                orphaned.set(zone);
+            }
+        }
+        if (!failed.isEmpty()) {
+            // The replica of the zone is up to date, it is simulated from this very tick
+            this.electionNode.takeOver(failed);
+            this.ownedZones = this.electionNode.ownedZones();
+            for (int zone = failed.nextSetBit(0); zone >= 0; zone = failed.nextSetBit(zone + 1)) {
+                // If the authority was just late it announces itself again, give it time to be heard
+                this.zoneFailureDetector.reset(zone, now);
+            }
+            if (debug)
+                LOGGER.info("[{}] TOOK OVER {} FROM SILENT AUTHORITIES", playerName, failed);
+        }
+        if (!orphaned.isEmpty() && this.zoneElection.isDone()) {
+            // Owned zones are read at every tick, so a won zone is simulated as soon as the election ends
+            this.zoneElection = startElection(orphaned);
+            if (debug)
+                this.zoneElection.thenAccept(won ->
+                        LOGGER.info("[{}] AM I THE AUTHORITY OF {} -> {}", playerName, orphaned, won));
+            for (int zone = orphaned.nextSetBit(0); zone >= 0; zone = orphaned.nextSetBit(zone + 1)) {
+                this.zoneFailureDetector.reset(zone, now); // Give the new authority time to be heard
+            }
+        }
     }
 
-    private World moveAllPlayers(final World currentWorld) {
-        final List<Player> updatedPlayers = currentWorld.getPlayers().stream()
-                .map(player -> {
-                    Position direction = playerDirections.getOrDefault(player.getId(), Position.ZERO);
-                    final double newX = player.getX() + direction.x() * PLAYER_SPEED;
-                    final double newY = player.getY() + direction.y() * PLAYER_SPEED;
-                    return player.moveTo(newX, newY);
-                })
-                .collect(Collectors.toList());
-        return new World(currentWorld.getWidth(), currentWorld.getHeight(), updatedPlayers, currentWorld.getFoods());
+    /**
+     * The zones this node would take over if their authority failed, among the nodes whose player
+     * is alive.
+     */
+    private BitSet standbyZones() {
+        final long now = this.clock.getAsLong();
+        final List<String> liveNodes = new ArrayList<>();
+        this.lastPlayerPositionTimestamp.forEach((id, timestamp) -> {
+            if (now - timestamp <= PLAYER_TIMEOUT_MS) {
+                liveNodes.add(id);
+            }
+        });
+        final BitSet standby = new BitSet(this.zones.count());
+        for (int zone = 0; zone < this.zones.count(); zone++) {
+            if (this.electionNode.isStandby(zone, liveNodes)) {
+                standby.set(zone);
+            }
+        }
+        return standby;
     }
 
-    private World updatePlayerPosition(Player newPlayer) {
-        final List<Player> updatedPlayers;
-        if (isPlayerNotPresent(newPlayer)) {
-            updatedPlayers = new ArrayList<>(this.world.getPlayers());
-            updatedPlayers.add(newPlayer);
+    /**
+     * Binds the world channel to the regions around the player, or to the whole map, dropping the
+     * replicas of the regions that are no longer of interest. The regions of the standby zones are
+     * always of interest, so that their replica is warm when their authority fails.
+     */
+    private void updateInterest(Optional<Player> player) throws IOException {
+        final BitSet wanted;
+        if (this.wholeMapInterest) {
+            wanted = this.mapRegions.all();
+        } else if (player.isPresent()) {
+            wanted = this.mapRegions.around(player.get().getX(), player.get().getY(), INTEREST_RANGE);
         } else {
-            updatedPlayers = updateExistentPlayer(newPlayer);
+            return;
+        }
+        for (int region = 0; region < regionZones.length; region++) {
+            if (this.standbyZones.get(regionZones[region])) {
+                wanted.set(region);
+            }
+        }
+        if (wanted.equals(this.interest)) {
+            return;
+        }
+        if (this.wholeMapInterest) {
+            this.transport.bind(TransportChannel.WORLD, MapRegions.WHOLE_MAP_KEY);
+        }
+        for (int region = 0; region < regionReplicas.length; region++) {
+            if (wanted.get(region) && !this.interest.get(region) && !this.wholeMapInterest) {
+                this.transport.bind(TransportChannel.WORLD, MapRegions.routingKey(region));
+            } else if (!wanted.get(region) && this.interest.get(region)) {
+                this.transport.unbind(TransportChannel.WORLD, MapRegions.routingKey(region));
+                this.regionReplicas[region] = null;
+                this.replicaChanged = true;
+            } else if (this.wholeMapInterest && this.interest.get(region)) {
+                this.transport.unbind(TransportChannel.WORLD, MapRegions.routingKey(region)); // Covered by the wildcard
+            }
+        }
+        this.interest = wanted;
+        final BitSet wantedZones = new BitSet(this.zones.count());
+        for (int region = wanted.nextSetBit(0); region >= 0; region = wanted.nextSetBit(region + 1)) {
+            wantedZones.set(regionZones[region]);
+        }
+        final long now = this.clock.getAsLong();
+        for (int zone = wantedZones.nextSetBit(0); zone >= 0; zone = wantedZones.nextSetBit(zone + 1)) {
+            if (!this.zonesOfInterest.get(zone)) {
+                this.zoneFailureDetector.reset(zone, now); // Give its authority time to be heard
+            }
+        }
+        this.zonesOfInterest = wantedZones;
+    }
+
+    /**
+     * Spawns the next epoch of foods in the regions of the owned zones that are running out of them.
+     * A region taken over continues from the latest epoch heard from the previous authority.
+     */
+    private void checkIfThereIsEnoughFood() {
+        final int[] foodsPerRegion = new int[this.mapRegions.count()];
+        for (Food food : this.kernel.snapshot().getFoods()) {
+            foodsPerRegion[this.mapRegions.regionOf(food.getX(), food.getY())]++;
+        }
+        final int minFoodPerRegion = Math.ceilDiv(MIN_FOOD_ON_THE_MAP, this.mapRegions.count());
+        for (int region = 0; region < foodsPerRegion.length; region++) {
+            if (this.ownedZones.get(regionZones[region]) && foodsPerRegion[region] < minFoodPerRegion) {
+                this.kernel.addFoods(this.foodField.spawn(region, this.foodEpochs[region]++));
+            }
         }
-        return new World(this.world.getWidth(), this.world.getHeight(), updatedPlayers, this.world.getFoods());
     }
 
-    private List<Player> updateExistentPlayer(Player newPlayer) {
-        return this.world.getPlayers().stream()
-                .map(player -> {
-                    if (player.getId().equals(newPlayer.getId())) {
-                        return newPlayer;
-                    } else {
-                        return player;
-                    }
-                })
-                .collect(Collectors.toList());
+    private boolean ownsPositionOf(String playerId) {
+        return this.kernel.findPlayer(playerId)
+                .map(p -> this.ownedZones.get(this.zones.regionOf(p.getX(), p.getY())))
+                .orElse(false);
     }
 
-    private boolean isPlayerNotPresent(Player newPlayer) {
-        return this.world.getPlayers().stream().noneMatch(p -> Objects.equals(p.getId(), newPlayer.getId()));
+    private void removeInactivePlayers(String playerId, long lastTimestamp) {
+        // The own player is owned here, a tick stalled by an election must not time it out
+        if (!playerId.equals(this.playerName) && this.clock.getAsLong() - lastTimestamp > PLAYER_TIMEOUT_MS) {
+            this.kernel.removePlayer(playerId);
+        }
     }
 }
@@ -0,0 +1,25 @@
+package it.unibo.agar.model;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * An entity eaten during a tick, as resolved by the authority of the zone the eaten entity was in.
+ * The node of the eater credits the mass to its player; a player that is eaten leaves the game.
+ * The kind of the eaten entity travels with its id, as a food id may also be the name of a player.
+ */
+public record EatEvent(String eaterId, Kind eatenKind, String eatenId, double mass) {
+    public enum Kind { PLAYER, FOOD }
+
+    @JsonCreator
+    public EatEvent(
+            @JsonProperty("eaterId") String eaterId,
+            @JsonProperty("eatenKind") Kind eatenKind,
+            @JsonProperty("eatenId") String eatenId,
+            @JsonProperty("mass") double mass) {
+        this.eaterId = eaterId;
+        this.eatenKind = eatenKind;
+        this.eatenId = eatenId;
+        this.mass = mass;
+    }
+}
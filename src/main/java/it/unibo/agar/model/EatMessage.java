@@ -0,0 +1,18 @@
+package it.unibo.agar.model;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+
+/**
+ * The eats resolved by the authority of a zone in one tick. Eats are events, not state: they are
+ * sent on a channel of their own that does not drop messages, as a lost eat would leave the eater
+ * without its mass and the eaten player in the game.
+ */
+public record EatMessage(List<EatEvent> eats) {
+    @JsonCreator
+    public EatMessage(@JsonProperty("eats") List<EatEvent> eats) {
+        this.eats = List.copyOf(eats);
+    }
+}
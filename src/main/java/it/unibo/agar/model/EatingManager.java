@@ -8,6 +8,11 @@ public class EatingManager {
         return e1.distanceTo(e2) < (e1.getRadius() + e2.getRadius());
     }
 
+    private static boolean collides(final double x1, final double y1, final double mass1,
+                                    final double x2, final double y2, final double mass2) {
+        return Math.hypot(x1 - x2, y1 - y2) < AbstractEntity.radiusOf(mass1) + AbstractEntity.radiusOf(mass2);
+    }
+
     public static boolean canEatFood(final Player player, final Food food) {
         return collides(player, food) && player.getMass() > food.getMass();
     }
@@ -15,4 +20,14 @@ public class EatingManager {
     public static boolean canEatPlayer(final Player player, final Player other) {
         return collides(player, other) && player.getMass() > other.getMass() * MASS_MARGIN;
     }
+
+    public static boolean canEatFood(final double playerX, final double playerY, final double playerMass,
+                                     final double foodX, final double foodY, final double foodMass) {
+        return playerMass > foodMass && collides(playerX, playerY, playerMass, foodX, foodY, foodMass);
+    }
+
+    public static boolean canEatPlayer(final double playerX, final double playerY, final double playerMass,
+                                       final double otherX, final double otherY, final double otherMass) {
+        return playerMass > otherMass * MASS_MARGIN && collides(playerX, playerY, playerMass, otherX, otherY, otherMass);
+    }
 }
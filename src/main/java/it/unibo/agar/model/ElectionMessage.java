@@ -3,14 +3,19 @@ package it.unibo.agar.model;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
-public record ElectionMessage(String type, String senderId, long timestamp) {
+/**
+ * Message of the election of the authority of a zone.
+ */
+public record ElectionMessage(String type, String senderId, int zone, long timestamp) {
     @JsonCreator
     public ElectionMessage(
             @JsonProperty("type") String type,
             @JsonProperty("senderId") String senderId,
+            @JsonProperty("zone") int zone,
             @JsonProperty("timestamp") long timestamp) {
         this.type = type;
         this.senderId = senderId;
+        this.zone = zone;
         this.timestamp = timestamp;
     }
 }
@@ -1,177 +1,384 @@
 package it.unibo.agar.model;
 
-import com.rabbitmq.client.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicLong;
-import java.util.function.Consumer;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BooleanSupplier;
 
+/**
+ * Bully election of the authority of every zone of the map. Nodes are ranked per zone by
+ * rendezvous hashing of node id and zone, so the node with the highest rank wins and the zones
+ * spread over the nodes instead of all going to the same one.
+ * Elections are event driven: they run on a single thread with a timer for the answers, never
+ * blocking the caller, which gets the outcome as a {@link CompletableFuture}.
+ */
 public class ElectionNode {
     private static Logger LOGGER = LoggerFactory.getLogger(ElectionNode.class);
+    private static final long ELECTION_TIMEOUT_MS = 600; // Time given to the higher nodes to answer
     private String nodeId = null;
-    private volatile String coordinatorId = null;
-    private final AtomicLong lastElectionTimestamp = new AtomicLong(0);
-    private final RabbitMQConnector connector;
+    private final AtomicReferenceArray<String> coordinatorIds;
+    private final AtomicLongArray receivedOks; // Per zone, to tell whether an OK came during an election
+    private final Transport transport;
     private final boolean debug;
     private final Serializer serializer;
 
-    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
-        Thread t = new Thread(r, "election-node-" + nodeId);
-        t.setDaemon(true);
-        return t;
-    });
+    private final ScheduledExecutorService executor;
+    private final boolean ownsExecutor;
+    private final List<PendingElection> pendingElections = new ArrayList<>(); // Owned by the election thread
 
-    private final Consumer<String> coordinatorListener = id -> { };
     private volatile boolean started = false;
+    private volatile boolean closed = false;
+    private volatile BooleanSupplier healthy = () -> true;
 
-    public ElectionNode(String nodeId, RabbitMQConnector connector, boolean debug) throws IOException {
+    public ElectionNode(String nodeId, int zones, Transport transport, boolean debug) throws IOException {
+        this(nodeId, zones, transport, debug, null);
+    }
+
+    /**
+     * @param executor runs the elections, possibly shared with other nodes but one task at a time;
+     *                 null for a thread of this node
+     */
+    public ElectionNode(String nodeId, int zones, Transport transport, boolean debug,
+                        ScheduledExecutorService executor) throws IOException {
         this.nodeId = nodeId;
+        this.ownsExecutor = executor == null;
+        this.executor = executor != null ? executor : Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "election-node-" + nodeId);
+            t.setDaemon(true);
+            return t;
+        });
         this.debug = debug;
-        this.connector = connector;
-        this.start();
+        this.transport = transport;
         this.serializer = new Serializer();
+        this.coordinatorIds = new AtomicReferenceArray<>(zones);
+        this.receivedOks = new AtomicLongArray(zones);
+        this.start();
     }
 
-    public ElectionNode(String nodeId, RabbitMQConnector connector) throws IOException {
-        this(nodeId, connector, false);
+    public ElectionNode(String nodeId, Transport transport) throws IOException {
+        this(nodeId, 1, transport, false);
     }
 
     public synchronized void start() throws IOException {
         if (started) return;
 
-        this.connector.setElectionMessageCallback(getDeliverCallback());
+        this.transport.subscribe(TransportChannel.ELECTION, this::onElectionMessage);
         started = true;
     }
 
-    private DeliverCallback getDeliverCallback() {
-        return (consumerTag, delivery) -> {
-            String message = new String(delivery.getBody(), StandardCharsets.UTF_8);
-            if (this.debug)
-                LOGGER.info("[{}] RAW RECEIVE -> {}", nodeId, message);
-            try {
-                handleMessage(message);
-            } finally {
-                try {
-                    this.connector.electionChannelAck(delivery);
-                } catch (IOException e) {
-                    LOGGER.error(e.getMessage());
-                }
-            }
-        };
+    /**
+     * Sets the check of whether this node can still act as an authority, e.g. its tick is running.
+     * While the check fails the node neither claims nor reasserts a zone and gives way to lower
+     * nodes, so that a node whose election thread outlived its tick does not win its zones back.
+     */
+    public void setHealthCheck(BooleanSupplier healthy) {
+        this.healthy = healthy;
     }
 
-    private void sendMessage(String type, String senderId) throws IOException {
-        String body = this.serializer.serializeObject(
-                new ElectionMessage(type, senderId, System.currentTimeMillis()));
-        this.connector.publishElectionMessage(body);
+    /**
+     * Stops taking part in the elections. The pending ones are dropped, and the executor is shut
+     * down unless it is shared.
+     */
+    public void close() {
+        closed = true;
+        if (ownsExecutor) {
+            executor.shutdownNow();
+            return;
+        }
+        executor.execute(() -> {
+            pendingElections.forEach(election -> election.timeout.cancel(false));
+            pendingElections.clear();
+        });
+    }
+
+    public int zones() {
+        return coordinatorIds.length();
+    }
+
+    private void onElectionMessage(byte[] body) throws IOException {
+        if (closed)
+            return;
         if (this.debug)
-            LOGGER.info("[{}] SEND -> {}", nodeId, body);
+            LOGGER.info("[{}] RAW RECEIVE -> {} bytes", nodeId, body.length);
+        handleMessage(body);
     }
 
-    private void handleMessage(String msg) throws IOException {
+    private void sendMessage(String type, int zone) throws IOException {
+        ElectionMessage message = new ElectionMessage(type, this.nodeId, zone, System.currentTimeMillis());
+        this.transport.publish(TransportChannel.ELECTION, this.serializer.serializeElectionMessage(message));
+        if (this.debug)
+            LOGGER.info("[{}] SEND -> {}", nodeId, message);
+    }
+
+    private void handleMessage(byte[] msg) throws IOException {
         ElectionMessage message = this.serializer.deserializeElectionMessage(msg);
         String type = message.type();
         String sender = message.senderId();
+        int zone = message.zone();
 
         if (Objects.equals(sender, this.nodeId)) {
             if (this.debug)
                 LOGGER.info("[{}] Ignoring my own message", nodeId);
             return;
         }
+        if (zone < 0 || zone >= zones()) {
+            return;
+        }
 
         if (this.debug)
-            LOGGER.info("[{}] HANDLE -> type={} from={}", nodeId, type, sender);
+            LOGGER.info("[{}] HANDLE -> type={} from={} zone={}", nodeId, type, sender, zone);
 
+        final boolean higher = outranks(this.nodeId, sender, zone) && healthy.getAsBoolean();
         switch (type) {
             case "ELECTION":
-                this.coordinatorId = null;
-                if (this.debug)
-                    LOGGER.info("[{}] Received ELECTION from {} (myId={}, compare={})", nodeId, sender, nodeId, nodeId.compareTo(sender));
-                if (this.nodeId.compareTo(sender) > 0) {
-                    if (this.debug)
-                        LOGGER.info("[{}] I am higher -> send OK and start own election", nodeId);
-                    sendMessage("OK", this.nodeId);
-                    executor.submit(this::startElectionInternal);
+                if (higher) {
+                    sendMessage("OK", zone);
+                    if (isLeader(zone)) {
+                        // Still alive and in charge, no need to step down for a new election
+                        if (this.debug)
+                            LOGGER.info("[{}] I am higher in zone {} and coordinator -> send OK and COORDINATOR", nodeId, zone);
+                        sendMessage("COORDINATOR", zone);
+                    } else {
+                        if (this.debug)
+                            LOGGER.info("[{}] I am higher in zone {} -> send OK and start own election", nodeId, zone);
+                        this.coordinatorIds.set(zone, null);
+                        startElection(single(zone));
+                    }
                 } else {
+                    this.coordinatorIds.set(zone, null);
                     if (this.debug)
-                        LOGGER.info("[{}] I am lower -> do not respond with OK", nodeId);
+                        LOGGER.info("[{}] I am lower in zone {} -> do not respond with OK", nodeId, zone);
                 }
                 break;
 
             case "OK":
                 if (this.debug)
-                    LOGGER.info("[{}] Received OK from {}", nodeId, sender);
-                lastElectionTimestamp.set(System.currentTimeMillis());
+                    LOGGER.info("[{}] Received OK from {} in zone {}", nodeId, sender, zone);
+                receivedOks.incrementAndGet(zone);
+                executor.execute(this::onOk);
                 break;
 
             case "COORDINATOR":
                 if (this.debug)
-                    LOGGER.info("[{}] Received COORDINATOR from {}", nodeId, sender);
-                coordinatorId = sender;
-                coordinatorListener.accept(sender);
+                    LOGGER.info("[{}] Received COORDINATOR from {} in zone {}", nodeId, sender, zone);
+                if (!higher) {
+                    coordinatorIds.set(zone, sender);
+                } else if (isLeader(zone)) {
+                    sendMessage("COORDINATOR", zone); // A lower node took over while I was still in charge
+                } else {
+                    this.coordinatorIds.set(zone, null);
+                    startElection(single(zone));
+                }
                 break;
 
             default:
                 if (this.debug)
-                    LOGGER.info("[{}] Unknown msg: {}", nodeId, msg);
+                    LOGGER.info("[{}] Unknown msg: {}", nodeId, message);
         }
     }
 
-    public Future<Boolean> startElection() {
+    /**
+     * Runs the election of every zone; the future tells whether this node won at least one.
+     */
+    public CompletableFuture<Boolean> startElection() {
+        final BitSet zones = new BitSet();
+        zones.set(0, zones());
+        return startElection(zones);
+    }
+
+    /**
+     * Starts the election of the given zones without waiting for it: the future completes when
+     * every zone got an OK from a higher node or the election timed out.
+     */
+    public CompletableFuture<Boolean> startElection(BitSet zones) {
         if (this.debug)
-            LOGGER.info("[{}] External trigger -> startElection()", nodeId);
-        return executor.submit(this::startElectionInternal);
+            LOGGER.info("[{}] External trigger -> startElection({})", nodeId, zones);
+        final PendingElection election = new PendingElection((BitSet) zones.clone());
+        executor.execute(() -> begin(election));
+        return election.result;
     }
 
-    private boolean startElectionInternal() {
-        try {
+    /**
+     * An election in progress, owned by the election thread.
+     */
+    private final class PendingElection {
+        private final BitSet zones;
+        private final BitSet alreadyLeader = new BitSet();
+        private final long[] oksBefore = new long[zones()];
+        private final CompletableFuture<Boolean> result = new CompletableFuture<>();
+        private ScheduledFuture<?> timeout;
+
+        private PendingElection(BitSet zones) {
+            this.zones = zones;
+        }
 
-            long sendTs = System.currentTimeMillis();
+        private boolean answered() {
+            for (int zone = zones.nextSetBit(0); zone >= 0; zone = zones.nextSetBit(zone + 1)) {
+                if (receivedOks.get(zone) <= oksBefore[zone]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private void begin(PendingElection election) {
+        try {
             if (this.debug)
-                LOGGER.info("[{}] Starting election... ts={}", nodeId, sendTs);
-            sendMessage("ELECTION", this.nodeId);
+                LOGGER.info("[{}] Starting election of zones {}... ts={}", nodeId, election.zones, System.currentTimeMillis());
+            final BitSet zones = election.zones;
+            for (int zone = zones.nextSetBit(0); zone >= 0; zone = zones.nextSetBit(zone + 1)) {
+                if (isLeader(zone)) {
+                    // Started before this node won the zone, an election now would only unsettle the others
+                    election.alreadyLeader.set(zone);
+                    if (healthy.getAsBoolean()) {
+                        sendMessage("COORDINATOR", zone);
+                    }
+                    continue;
+                }
+                election.oksBefore[zone] = receivedOks.get(zone);
+                sendMessage("ELECTION", zone);
+            }
+            zones.andNot(election.alreadyLeader);
+            if (zones.isEmpty()) {
+                election.result.complete(!election.alreadyLeader.isEmpty());
+                return;
+            }
+            pendingElections.add(election);
+            election.timeout = executor.schedule(() -> conclude(election), ELECTION_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            LOGGER.error("[{}] Error -> {}", nodeId, e.getMessage());
+            election.result.complete(false);
+        }
+    }
 
-            int waitMs = 600;
-            int interval = 200;
-            boolean gotOk = false;
+    /**
+     * Ends the pending elections in which every zone was answered by a higher node.
+     */
+    private void onOk() {
+        for (PendingElection election : List.copyOf(pendingElections)) {
+            if (election.answered()) {
+                election.timeout.cancel(false);
+                conclude(election);
+            }
+        }
+    }
 
-            long startTs = System.currentTimeMillis();
-            lastElectionTimestamp.set(startTs);
+    private void conclude(PendingElection election) {
+        if (!pendingElections.remove(election)) {
+            return; // Already concluded
+        }
+        final BitSet won = (BitSet) election.zones.clone();
+        for (int zone = won.nextSetBit(0); zone >= 0; zone = won.nextSetBit(zone + 1)) {
+            if (receivedOks.get(zone) > election.oksBefore[zone]) {
+                won.clear(zone); // A higher node answered, it takes over the election
+            }
+        }
+        if (!healthy.getAsBoolean()) {
+            won.clear(); // Could not serve the zones, the election runs again once the others miss them
+        }
+        try {
+            for (int zone = won.nextSetBit(0); zone >= 0; zone = won.nextSetBit(zone + 1)) {
+                sendMessage("COORDINATOR", zone);
+                coordinatorIds.set(zone, this.nodeId);
+            }
+        } catch (Exception e) {
+            LOGGER.error("[{}] Error -> {}", nodeId, e.getMessage());
+        }
+        if (this.debug)
+            LOGGER.info("[{}] Election of zones {} over, won {}", nodeId, election.zones, won);
+        election.result.complete(!won.isEmpty() || !election.alreadyLeader.isEmpty());
+    }
 
-            long waited = 0;
-            while (waited < waitMs) {
-                Thread.sleep(interval);
-                waited += interval;
-                long last = lastElectionTimestamp.get();
-                if (this.debug)
-                    LOGGER.info("[{}] Waiting... waited={} lastOkTs={} startTs={}", nodeId, waited, last, startTs);
-                if (last > startTs) {
-                    gotOk = true;
-                    break;
+    /**
+     * Becomes the coordinator of the zones at once, without an election: for a standby that knows
+     * it is the highest live node. A higher node that was missed still wins the zone back, since it
+     * answers the announcement with its own election.
+     */
+    public void takeOver(BitSet zones) {
+        final BitSet copy = (BitSet) zones.clone();
+        for (int zone = copy.nextSetBit(0); zone >= 0; zone = copy.nextSetBit(zone + 1)) {
+            coordinatorIds.set(zone, this.nodeId);
+        }
+        executor.execute(() -> {
+            try {
+                for (int zone = copy.nextSetBit(0); zone >= 0; zone = copy.nextSetBit(zone + 1)) {
+                    sendMessage("COORDINATOR", zone);
                 }
+            } catch (IOException e) {
+                LOGGER.error("[{}] Error -> {}", nodeId, e.getMessage());
             }
+        });
+    }
+
+    public String coordinator(int zone) {
+        return this.coordinatorIds.get(zone);
+    }
 
-            if (!gotOk) {
-                sendMessage("COORDINATOR", this.nodeId);
-                coordinatorId = this.nodeId;
-                coordinatorListener.accept(this.nodeId);
-                return true;
-            } else {
+    /**
+     * Whether this node would win the election of the zone if its current coordinator was gone,
+     * among the given live nodes.
+     */
+    public boolean isStandby(int zone, Collection<String> liveNodes) {
+        final String coordinator = this.coordinatorIds.get(zone);
+        if (coordinator == null || coordinator.equals(this.nodeId)) {
+            return false;
+        }
+        for (String node : liveNodes) {
+            if (!node.equals(this.nodeId) && !node.equals(coordinator) && !outranks(this.nodeId, node, zone)) {
                 return false;
             }
-        } catch (Exception e) {
-            LOGGER.error("[{}] Error -> ", e.getMessage());
-            return false;
         }
+        return true;
+    }
+
+    public boolean isLeader(int zone) {
+        return Objects.equals(this.nodeId, this.coordinatorIds.get(zone));
     }
 
+    /**
+     * Whether this node is the authority of at least one zone.
+     */
     public boolean isLeader() {
-        return Objects.equals(this.nodeId, this.coordinatorId);
+        return !ownedZones().isEmpty();
     }
 
+    public BitSet ownedZones() {
+        final BitSet owned = new BitSet(zones());
+        for (int zone = 0; zone < zones(); zone++) {
+            if (isLeader(zone)) {
+                owned.set(zone);
+            }
+        }
+        return owned;
+    }
+
+    private static BitSet single(int zone) {
+        final BitSet zones = new BitSet();
+        zones.set(zone);
+        return zones;
+    }
+
+    private static boolean outranks(String nodeId, String otherId, int zone) {
+        final long rank = rank(nodeId, zone);
+        final long otherRank = rank(otherId, zone);
+        return rank != otherRank ? rank > otherRank : nodeId.compareTo(otherId) > 0;
+    }
+
+    private static long rank(String nodeId, int zone) {
+        // Rendezvous weight: a well mixed hash of the pair, so each zone orders the nodes differently
+        long h = nodeId.hashCode() * 0x9E3779B97F4A7C15L + zone;
+        h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+        h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return h ^ (h >>> 33);
+    }
 }
@@ -0,0 +1,101 @@
+package it.unibo.agar.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Deterministic food spawning shared by all the nodes. The foods of a region are spawned in
+ * numbered batches, the spawn epochs, and the id of a food encodes region, epoch and index in the
+ * batch; its position is a counter based hash of the game seed and the id. Any node with the same
+ * seed can then materialize a food from its id alone, so the world updates only carry the spawn
+ * epoch of each region and the ids of the foods eaten.
+ */
+public class FoodField {
+    private static final int INDEX_BITS = 8;
+    private static final int EPOCH_BITS = 32;
+    private static final double UNIT = 0x1.0p-53; // From the top 53 bits of a long to [0, 1)
+
+    private final long seed;
+    private final MapRegions regions;
+    private final double mass;
+    private final int initialBatch;
+    private final int refillBatch;
+
+    /**
+     * @param initialBatch foods of the first epoch of every region, the ones the game starts with
+     * @param refillBatch  foods of every later epoch
+     */
+    public FoodField(final long seed, final MapRegions regions, final double mass, final int initialBatch,
+                     final int refillBatch) {
+        if (Math.max(initialBatch, refillBatch) > 1 << INDEX_BITS) {
+            throw new IllegalArgumentException("Spawn batches are limited to " + (1 << INDEX_BITS) + " foods");
+        }
+        this.seed = seed;
+        this.regions = regions;
+        this.mass = mass;
+        this.initialBatch = initialBatch;
+        this.refillBatch = refillBatch;
+    }
+
+    public int batchSize(final long epoch) {
+        return epoch == 0 ? initialBatch : refillBatch;
+    }
+
+    /**
+     * The foods of the first epoch of every region.
+     */
+    public List<Food> initialFoods() {
+        final List<Food> foods = new ArrayList<>();
+        for (int region = 0; region < regions.count(); region++) {
+            foods.addAll(spawn(region, 0));
+        }
+        return foods;
+    }
+
+    public List<Food> spawn(final int region, final long epoch) {
+        final List<Food> foods = new ArrayList<>(batchSize(epoch));
+        for (int index = 0; index < batchSize(epoch); index++) {
+            foods.add(food(id(region, epoch, index)));
+        }
+        return foods;
+    }
+
+    /**
+     * The ids of the foods spawned in the region from the first epoch, included, to the last one,
+     * excluded.
+     */
+    public List<Long> ids(final int region, final long fromEpoch, final long toEpoch) {
+        final List<Long> ids = new ArrayList<>();
+        for (long epoch = fromEpoch; epoch < toEpoch; epoch++) {
+            for (int index = 0; index < batchSize(epoch); index++) {
+                ids.add(id(region, epoch, index));
+            }
+        }
+        return ids;
+    }
+
+    public Food food(final long id) {
+        final int region = (int) (id >>> (EPOCH_BITS + INDEX_BITS));
+        final long x = mix(seed + id * 0x9E3779B97F4A7C15L);
+        final long y = mix(x);
+        return new Food(Long.toString(id),
+                regions.originX(region) + (x >>> 11) * UNIT * regions.widthOf(region),
+                regions.originY(region) + (y >>> 11) * UNIT * regions.heightOf(region),
+                mass);
+    }
+
+    public static long id(final int region, final long epoch, final int index) {
+        return ((long) region << (EPOCH_BITS + INDEX_BITS)) | (epoch << INDEX_BITS) | index;
+    }
+
+    public static long idOf(final Food food) {
+        return Long.parseLong(food.getId());
+    }
+
+    private static long mix(long z) {
+        // SplitMix64 finalizer: consecutive counters give unrelated values
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,212 @@
+package it.unibo.agar.model;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Always-on metrics of a node: durations of the tick phases, decoding, queueing and elections, and
+ * messages and bytes per channel. Recording is a few uncontended adders, cheap enough for every
+ * tick in production. The metrics are exposed through JMX and logged as one compact line with the
+ * means and maxima of the last interval, every 10 seconds unless the {@value #LOG_INTERVAL_PROPERTY}
+ * system property sets another interval in milliseconds; a non-positive one disables the line.
+ */
+public class GameMetrics implements GameMetricsMXBean {
+    private static final Logger LOGGER = LoggerFactory.getLogger(GameMetrics.class);
+    public static final String LOG_INTERVAL_PROPERTY = "agar.metricsLogIntervalMs";
+    private static final long DEFAULT_LOG_INTERVAL_MS = 10_000;
+
+    public enum Metric {
+        TICK, DRAIN, MOVE, EAT, FOOD_REFILL, SERIALIZE, PUBLISH, DECODE, QUEUE_LAG, ELECTION
+    }
+
+    private final String nodeId;
+    private final Map<Metric, Timer> timers = new EnumMap<>(Metric.class);
+    private final Map<TransportChannel, LongAdder> messagesIn = new EnumMap<>(TransportChannel.class);
+    private final Map<TransportChannel, LongAdder> messagesOut = new EnumMap<>(TransportChannel.class);
+    private final Map<TransportChannel, LongAdder> bytesIn = new EnumMap<>(TransportChannel.class);
+    private final Map<TransportChannel, LongAdder> bytesOut = new EnumMap<>(TransportChannel.class);
+    private final Map<Metric, long[]> reported = new EnumMap<>(Metric.class); // Count and total at the last report
+    private ObjectName objectName;
+    private ScheduledExecutorService reporter;
+
+    public GameMetrics(final String nodeId) {
+        this.nodeId = nodeId;
+        for (Metric metric : Metric.values()) {
+            timers.put(metric, new Timer());
+            reported.put(metric, new long[2]);
+        }
+        for (TransportChannel channel : TransportChannel.values()) {
+            messagesIn.put(channel, new LongAdder());
+            messagesOut.put(channel, new LongAdder());
+            bytesIn.put(channel, new LongAdder());
+            bytesOut.put(channel, new LongAdder());
+        }
+    }
+
+    /**
+     * Registers the metrics in the platform MBean server and starts the periodic log line.
+     */
+    public GameMetrics start() {
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            objectName = new ObjectName("it.unibo.agar:type=GameMetrics,node=" + ObjectName.quote(nodeId));
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName); // A previous node of this player in the same JVM
+            }
+            server.registerMBean(this, objectName);
+        } catch (JMException e) {
+            LOGGER.warn("[{}] Metrics not registered in JMX: {}", nodeId, e.getMessage());
+        }
+        final long intervalMs = Long.getLong(LOG_INTERVAL_PROPERTY, DEFAULT_LOG_INTERVAL_MS);
+        if (intervalMs > 0) {
+            reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "game-metrics-" + nodeId);
+                t.setDaemon(true);
+                return t;
+            });
+            reporter.scheduleAtFixedRate(() -> LOGGER.info("[{}] {}", nodeId, report()), intervalMs, intervalMs,
+                    TimeUnit.MILLISECONDS);
+        }
+        return this;
+    }
+
+    /**
+     * Records the time elapsed since the given {@link System#nanoTime()}.
+     */
+    public void recordSince(final Metric metric, final long startNanos) {
+        record(metric, System.nanoTime() - startNanos);
+    }
+
+    public void record(final Metric metric, final long nanos) {
+        timers.get(metric).record(nanos);
+    }
+
+    public void messageIn(final TransportChannel channel, final int bytes) {
+        messagesIn.get(channel).increment();
+        bytesIn.get(channel).add(bytes);
+    }
+
+    public void messageOut(final TransportChannel channel, final int bytes) {
+        messagesOut.get(channel).increment();
+        bytesOut.get(channel).add(bytes);
+    }
+
+    /**
+     * The compact line logged periodically: for every metric recorded since the previous line, the
+     * count and the mean and max in milliseconds, then the messages received and sent per channel
+     * since the start.
+     */
+    synchronized String report() {
+        final StringBuilder line = new StringBuilder();
+        for (Metric metric : Metric.values()) {
+            final Timer timer = timers.get(metric);
+            final long[] last = reported.get(metric);
+            final long count = timer.count.sum();
+            final long total = timer.total.sum();
+            final long max = timer.max.getThenReset();
+            if (count > last[0]) {
+                line.append(String.format("%s n=%d avg=%.2f max=%.2f | ", metric.name().toLowerCase(),
+                        count - last[0], (total - last[1]) / 1e6 / (count - last[0]), max / 1e6));
+            }
+            last[0] = count;
+            last[1] = total;
+        }
+        line.append("msgs in/out");
+        for (TransportChannel channel : TransportChannel.values()) {
+            final long in = messagesIn.get(channel).sum();
+            final long out = messagesOut.get(channel).sum();
+            if (in > 0 || out > 0) {
+                line.append(' ').append(channel.name().toLowerCase()).append('=').append(in).append('/').append(out);
+            }
+        }
+        return line.toString();
+    }
+
+    public void close() {
+        if (reporter != null) {
+            reporter.shutdownNow();
+        }
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException e) {
+                LOGGER.warn("[{}] Metrics not unregistered from JMX: {}", nodeId, e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public Map<String, Long> getCounts() {
+        final Map<String, Long> counts = new LinkedHashMap<>();
+        timers.forEach((metric, timer) -> counts.put(metric.name(), timer.count.sum()));
+        return counts;
+    }
+
+    @Override
+    public Map<String, Double> getMeanMillis() {
+        final Map<String, Double> means = new LinkedHashMap<>();
+        timers.forEach((metric, timer) -> {
+            final long count = timer.count.sum();
+            means.put(metric.name(), count == 0 ? 0 : timer.total.sum() / 1e6 / count);
+        });
+        return means;
+    }
+
+    @Override
+    public Map<String, Double> getMaxMillis() {
+        final Map<String, Double> maxima = new LinkedHashMap<>();
+        timers.forEach((metric, timer) -> maxima.put(metric.name(), timer.max.get() / 1e6));
+        return maxima;
+    }
+
+    @Override
+    public Map<String, Long> getMessagesIn() {
+        return sums(messagesIn);
+    }
+
+    @Override
+    public Map<String, Long> getMessagesOut() {
+        return sums(messagesOut);
+    }
+
+    @Override
+    public Map<String, Long> getBytesIn() {
+        return sums(bytesIn);
+    }
+
+    @Override
+    public Map<String, Long> getBytesOut() {
+        return sums(bytesOut);
+    }
+
+    private static Map<String, Long> sums(final Map<TransportChannel, LongAdder> adders) {
+        final Map<String, Long> sums = new LinkedHashMap<>();
+        adders.forEach((channel, adder) -> sums.put(channel.name(), adder.sum()));
+        return sums;
+    }
+
+    private static final class Timer {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        private void record(final long nanos) {
+            count.increment();
+            total.add(nanos);
+            max.accumulate(nanos);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package it.unibo.agar.model;
+
+import java.util.Map;
+
+/**
+ * Management interface of the {@link GameMetrics} of a node, registered in the platform MBean
+ * server as {@code it.unibo.agar:type=GameMetrics,node=<player>}. Durations are keyed by
+ * {@link GameMetrics.Metric}, message counters by {@link TransportChannel}.
+ */
+public interface GameMetricsMXBean {
+    Map<String, Long> getCounts();
+
+    Map<String, Double> getMeanMillis();
+
+    /**
+     * Longest duration of each metric since the last periodic report.
+     */
+    Map<String, Double> getMaxMillis();
+
+    Map<String, Long> getMessagesIn();
+
+    Map<String, Long> getMessagesOut();
+
+    Map<String, Long> getBytesIn();
+
+    Map<String, Long> getBytesOut();
+}
@@ -8,6 +8,15 @@ import java.util.concurrent.ExecutionException;
 
 public interface GameStateManager {
     World getWorld();
+
+    /**
+     * The world to draw in the next frame, which may differ from the simulated one, e.g. smoothed
+     * between network updates.
+     */
+    default World getRenderWorld() {
+        return getWorld();
+    }
+
     void setPlayerDirection(final String playerId, final double dx, final double dy);
     void tick() throws IOException, ExecutionException, InterruptedException;
 }
@@ -0,0 +1,26 @@
+package it.unibo.agar.model;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Direction of a player for one tick of the lockstep simulation, with the latest checksum of the
+ * state computed by its node, so that the nodes can tell when they diverged.
+ */
+public record InputMessage(String playerId, long tick, double dx, double dy, long checksumTick, long checksum) {
+    @JsonCreator
+    public InputMessage(
+            @JsonProperty("playerId") String playerId,
+            @JsonProperty("tick") long tick,
+            @JsonProperty("dx") double dx,
+            @JsonProperty("dy") double dy,
+            @JsonProperty("checksumTick") long checksumTick,
+            @JsonProperty("checksum") long checksum) {
+        this.playerId = playerId;
+        this.tick = tick;
+        this.dx = dx;
+        this.dy = dy;
+        this.checksumTick = checksumTick;
+        this.checksum = checksum;
+    }
+}
@@ -0,0 +1,82 @@
+package it.unibo.agar.model;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+
+/**
+ * Human readable codec backed by Jackson, useful to inspect the traffic while debugging.
+ */
+public class JsonCodec implements WireCodec {
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Override
+    public byte[] encodePlayer(Player player) throws IOException {
+        return mapper.writeValueAsBytes(player);
+    }
+
+    @Override
+    public Player decodePlayer(byte[] bytes) throws IOException {
+        return mapper.readValue(bytes, Player.class);
+    }
+
+    @Override
+    public byte[] encodeWorld(World world) throws IOException {
+        return mapper.writeValueAsBytes(world);
+    }
+
+    @Override
+    public World decodeWorld(byte[] bytes) throws IOException {
+        return mapper.readValue(bytes, World.class);
+    }
+
+    @Override
+    public byte[] encodeWorldMessage(WorldMessage message) throws IOException {
+        return mapper.writeValueAsBytes(message);
+    }
+
+    @Override
+    public WorldMessage decodeWorldMessage(byte[] bytes) throws IOException {
+        return mapper.readValue(bytes, WorldMessage.class);
+    }
+
+    @Override
+    public byte[] encodeElectionMessage(ElectionMessage message) throws IOException {
+        return mapper.writeValueAsBytes(message);
+    }
+
+    @Override
+    public ElectionMessage decodeElectionMessage(byte[] bytes) throws IOException {
+        return mapper.readValue(bytes, ElectionMessage.class);
+    }
+
+    @Override
+    public byte[] encodeInputMessage(InputMessage message) throws IOException {
+        return mapper.writeValueAsBytes(message);
+    }
+
+    @Override
+    public InputMessage decodeInputMessage(byte[] bytes) throws IOException {
+        return mapper.readValue(bytes, InputMessage.class);
+    }
+
+    @Override
+    public byte[] encodeRosterMessage(RosterMessage message) throws IOException {
+        return mapper.writeValueAsBytes(message);
+    }
+
+    @Override
+    public RosterMessage decodeRosterMessage(byte[] bytes) throws IOException {
+        return mapper.readValue(bytes, RosterMessage.class);
+    }
+
+    @Override
+    public byte[] encodeEatMessage(EatMessage message) throws IOException {
+        return mapper.writeValueAsBytes(message);
+    }
+
+    @Override
+    public EatMessage decodeEatMessage(byte[] bytes) throws IOException {
+        return mapper.readValue(bytes, EatMessage.class);
+    }
+}
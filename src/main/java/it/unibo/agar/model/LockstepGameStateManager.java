@@ -0,0 +1,328 @@
+package it.unibo.agar.model;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+/**
+ * Game state of a node in deterministic lockstep. Nodes exchange only the direction of their
+ * player for every tick, and each of them runs the same move, eat and spawn simulation on the same
+ * inputs, so no world or position is ever sent and there is no authority to elect.
+ * <p>
+ * Ticks are numbered; the input given at tick {@code t} is applied at tick {@code t + }
+ * {@link #INPUT_DELAY_TICKS}, which gives it time to reach the other nodes, and a node simulates a
+ * tick only when it has the inputs of every player still in the game, otherwise it waits. Foods come
+ * from a {@link FoodField} with the seed shared by all the nodes. Every
+ * {@link #CHECKSUM_INTERVAL_TICKS} ticks each node hashes its state and sends the hash with its
+ * inputs, so that a divergence is reported instead of going unnoticed.
+ * <p>
+ * The players are a fixed set known by all the nodes when the game starts; the game waits for
+ * every one of them, so a node that leaves stalls it.
+ */
+public class LockstepGameStateManager implements GameStateManager {
+    private static final Logger LOGGER = LoggerFactory.getLogger(LockstepGameStateManager.class);
+    private static final int MIN_FOOD_ON_THE_MAP = 15;
+    private static final int FOOD_REFILL = 5;
+    private static final double PLAYER_SPEED = 1.0;
+    private static final int HEIGHT = 1000;
+    private static final int WIDTH = 1000;
+    private static final int N_OF_FOOD = 20;
+    private static final double REGION_SIZE = 250;
+    private static final int INPUT_DELAY_TICKS = 3; // 60 ms at 50 ticks per second
+    private static final int CHECKSUM_INTERVAL_TICKS = 50;
+    private static final int KEPT_CHECKSUMS = 8;
+    private static final long RESEND_INTERVAL_MS = 200; // While waiting, inputs may have been missed
+    public static final String PLAYERS_PROPERTY = "agar.lockstep"; // Comma separated players of a lockstep game
+
+    private final String playerName;
+    private final SimulationKernel kernel;
+    private final Serializer serializer;
+    private final Transport transport;
+    private final GameMetrics metrics;
+    private final Boolean debug;
+    private final MapRegions mapRegions = new MapRegions(WIDTH, HEIGHT, REGION_SIZE);
+    private final FoodField foodField;
+    private final long[] foodEpochs = new long[mapRegions.count()];
+    private final Queue<Runnable> inbox = new ConcurrentLinkedQueue<>(); // Events applied by the tick thread
+    private final Map<Long, Map<String, InputMessage>> inputs = new HashMap<>();
+    private final NavigableMap<Long, InputMessage> sentInputs = new TreeMap<>(); // Those a peer may still miss
+    private final NavigableMap<Long, Long> checksums = new TreeMap<>();
+    private final List<InputMessage> unverifiedChecksums = new ArrayList<>();
+    private long tick = 0;
+    private long sentTick = INPUT_DELAY_TICKS - 1;
+    private long waitingSince = 0;
+    private long lastResend = 0;
+    private double dx = 0;
+    private double dy = 0;
+    private boolean desynced = false;
+    private boolean victory = false;
+    private volatile World publishedWorld;
+    private volatile Consumer<String> victoryListener = winner -> { };
+
+    public LockstepGameStateManager(String hostAddress, String playerName, Collection<String> players, Boolean debug)
+            throws IOException, TimeoutException {
+        this(connect(hostAddress), playerName, players, debug);
+    }
+
+    public LockstepGameStateManager(Transport transport, String playerName, Collection<String> players,
+                                    Boolean debug) throws IOException {
+        this.metrics = new GameMetrics(playerName).start();
+        this.transport = new MeteredTransport(transport, this.metrics);
+        this.playerName = playerName;
+        this.debug = debug;
+        this.foodField = new FoodField(
+                Long.getLong(DistributedGameStateManager.SEED_PROPERTY, DistributedGameStateManager.DEFAULT_SEED),
+                this.mapRegions, DistributedGameStateManager.FOOD_MASS,
+                Math.ceilDiv(N_OF_FOOD, this.mapRegions.count()), Math.ceilDiv(FOOD_REFILL, this.mapRegions.count()));
+        Arrays.fill(this.foodEpochs, 1); // The initial foods are the first epoch
+        // Kernel slots decide the order of the eats, so players are added in the same order everywhere
+        final Set<String> roster = new TreeSet<>(players);
+        roster.add(playerName);
+        final List<Player> initialPlayers = roster.stream()
+                .map(id -> new Player(id, 200, 200, 200))
+                .toList();
+        // The players are known from the start, their index is their id on the wire
+        final PlayerRoster ids = new PlayerRoster();
+        for (int i = 0; i < initialPlayers.size(); i++) {
+            ids.put(i, initialPlayers.get(i).getId());
+        }
+        this.serializer = new Serializer(ids);
+        this.kernel = new SimulationKernel(new World(WIDTH, HEIGHT, initialPlayers, this.foodField.initialFoods()));
+        this.publishedWorld = this.kernel.snapshot();
+        for (long t = 0; t < INPUT_DELAY_TICKS; t++) {
+            addOwnInput(new InputMessage(playerName, t, 0, 0, -1, 0));
+        }
+        this.transport.subscribe(TransportChannel.INPUT, this::onInputMessage);
+        resendInputs();
+    }
+
+    private static Transport connect(String hostAddress) throws IOException, TimeoutException {
+        RabbitMQConnector connector = new RabbitMQConnector();
+        connector.connect(hostAddress);
+        return connector;
+    }
+
+    public void setVictoryListener(Consumer<String> victoryListener) {
+        this.victoryListener = victoryListener;
+    }
+
+    public GameMetrics metrics() {
+        return this.metrics;
+    }
+
+    /**
+     * Queues an event for the tick thread, recording how long it waits there.
+     */
+    private void enqueue(Runnable event) {
+        final long queuedAt = System.nanoTime();
+        this.inbox.add(() -> {
+            this.metrics.recordSince(GameMetrics.Metric.QUEUE_LAG, queuedAt);
+            event.run();
+        });
+    }
+
+    /**
+     * The next tick to simulate.
+     */
+    public long currentTick() {
+        return this.tick;
+    }
+
+    private void onInputMessage(byte[] body) {
+        try {
+            final long decodeStart = System.nanoTime();
+            final InputMessage input = serializer.deserializeInputMessage(body);
+            this.metrics.recordSince(GameMetrics.Metric.DECODE, decodeStart);
+            if (!input.playerId().equals(this.playerName)) {
+                enqueue(() -> onInput(input));
+            }
+        } catch (IOException e) {
+            if (debug)
+                LOGGER.error("[{}] ERROR -> {}", playerName, e.getMessage());
+        }
+    }
+
+    private void onInput(InputMessage input) {
+        if (input.tick() >= this.tick) {
+            this.inputs.computeIfAbsent(input.tick(), t -> new HashMap<>()).put(input.playerId(), input);
+        }
+        if (input.checksumTick() >= 0) {
+            this.unverifiedChecksums.add(input);
+        }
+    }
+
+    @Override
+    public World getWorld() {
+        return this.publishedWorld;
+    }
+
+    @Override
+    public void setPlayerDirection(String playerId, double dx, double dy) {
+        if (playerId.equals(this.playerName)) {
+            enqueue(() -> {
+                this.dx = dx;
+                this.dy = dy;
+            });
+        }
+    }
+
+    /**
+     * Sends the input of this node for a later tick and simulates the next tick if the inputs of
+     * all the players arrived.
+     */
+    @Override
+    public void tick() throws IOException {
+        final long tickStart = System.nanoTime();
+        Runnable event;
+        while ((event = this.inbox.poll()) != null) {
+            event.run();
+        }
+        this.metrics.recordSince(GameMetrics.Metric.DRAIN, tickStart);
+        if (this.sentTick < this.tick + INPUT_DELAY_TICKS) {
+            this.sentTick = this.tick + INPUT_DELAY_TICKS;
+            final Map.Entry<Long, Long> checksum = this.checksums.lastEntry();
+            final InputMessage input = new InputMessage(this.playerName, this.sentTick, this.dx, this.dy,
+                    checksum == null ? -1 : checksum.getKey(), checksum == null ? 0 : checksum.getValue());
+            addOwnInput(input);
+            final long serializeStart = System.nanoTime();
+            final byte[] inputMessage = serializer.serializeInputMessage(input);
+            this.metrics.recordSince(GameMetrics.Metric.SERIALIZE, serializeStart);
+            this.transport.publish(TransportChannel.INPUT, inputMessage);
+        }
+        final long now = System.currentTimeMillis();
+        final Map<String, InputMessage> tickInputs = this.inputs.getOrDefault(this.tick, Map.of());
+        if (!hasAllInputs(tickInputs)) {
+            if (this.waitingSince == 0) {
+                this.waitingSince = now;
+            } else if (now - this.waitingSince > RESEND_INTERVAL_MS && now - this.lastResend > RESEND_INTERVAL_MS) {
+                resendInputs();
+                if (debug)
+                    LOGGER.info("[{}] WAITING FOR THE INPUTS OF TICK {} SINCE {} ms", playerName, this.tick,
+                            now - this.waitingSince);
+            }
+            return;
+        }
+        this.waitingSince = 0;
+        step(tickInputs);
+        this.inputs.remove(this.tick);
+        this.tick++;
+        verifyChecksums();
+        this.publishedWorld = this.kernel.snapshot();
+        this.metrics.recordSince(GameMetrics.Metric.TICK, tickStart);
+    }
+
+    private boolean hasAllInputs(Map<String, InputMessage> tickInputs) {
+        for (Player player : this.kernel.snapshot().getPlayers()) {
+            if (!tickInputs.containsKey(player.getId())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void addOwnInput(InputMessage input) {
+        this.inputs.computeIfAbsent(input.tick(), t -> new HashMap<>()).put(this.playerName, input);
+        this.sentInputs.put(input.tick(), input);
+        // This node simulated the previous tick with the inputs of every peer, so no peer is further behind
+        this.sentInputs.headMap(this.tick - INPUT_DELAY_TICKS - 1).clear();
+    }
+
+    /**
+     * Sends again the inputs of this node that a peer may still be waiting for, because it missed
+     * them or was not subscribed yet when they were sent.
+     */
+    private void resendInputs() throws IOException {
+        this.lastResend = System.currentTimeMillis();
+        for (InputMessage input : this.sentInputs.values()) {
+            this.transport.publish(TransportChannel.INPUT, serializer.serializeInputMessage(input));
+        }
+    }
+
+    private void step(Map<String, InputMessage> tickInputs) {
+        tickInputs.values().forEach(input -> this.kernel.setDirection(input.playerId(), input.dx(), input.dy()));
+        final long moveStart = System.nanoTime();
+        this.kernel.move(PLAYER_SPEED);
+        this.metrics.recordSince(GameMetrics.Metric.MOVE, moveStart);
+        final long eatStart = System.nanoTime();
+        this.kernel.eat();
+        this.metrics.recordSince(GameMetrics.Metric.EAT, eatStart);
+        final long refillStart = System.nanoTime();
+        spawnFoods();
+        this.metrics.recordSince(GameMetrics.Metric.FOOD_REFILL, refillStart);
+        if (this.tick % CHECKSUM_INTERVAL_TICKS == 0) {
+            this.checksums.put(this.tick, checksum(this.kernel.snapshot()));
+            if (this.checksums.size() > KEPT_CHECKSUMS) {
+                this.checksums.pollFirstEntry();
+            }
+        }
+        final Optional<String> winner = this.kernel.findPlayerWithMass(DistributedGameStateManager.WINNING_MASS);
+        if (winner.isPresent() && !this.victory) {
+            this.victory = true; // Every node finds the same winner at the same tick, nothing to send
+            victoryListener.accept(winner.get());
+        }
+    }
+
+    /**
+     * Spawns the next epoch of foods in the regions running out of them.
+     */
+    private void spawnFoods() {
+        final int[] foodsPerRegion = new int[this.mapRegions.count()];
+        for (Food food : this.kernel.snapshot().getFoods()) {
+            foodsPerRegion[this.mapRegions.regionOf(food.getX(), food.getY())]++;
+        }
+        final int minFoodPerRegion = Math.ceilDiv(MIN_FOOD_ON_THE_MAP, this.mapRegions.count());
+        for (int region = 0; region < foodsPerRegion.length; region++) {
+            if (foodsPerRegion[region] < minFoodPerRegion) {
+                this.kernel.addFoods(this.foodField.spawn(region, this.foodEpochs[region]++));
+            }
+        }
+    }
+
+    /**
+     * Compares the checksums received with the ones of the same ticks computed here; the ones of
+     * ticks not simulated yet are kept for later.
+     */
+    private void verifyChecksums() {
+        final Iterator<InputMessage> pending = this.unverifiedChecksums.iterator();
+        while (pending.hasNext()) {
+            final InputMessage input = pending.next();
+            if (input.checksumTick() >= this.tick) {
+                continue;
+            }
+            pending.remove();
+            final Long checksum = this.checksums.get(input.checksumTick());
+            if (checksum != null && checksum != input.checksum() && !this.desynced) {
+                this.desynced = true;
+                LOGGER.error("[{}] Desync with {} at tick {}: checksum {} instead of {}", playerName,
+                        input.playerId(), input.checksumTick(), Long.toHexString(input.checksum()),
+                        Long.toHexString(checksum));
+            }
+        }
+    }
+
+    /**
+     * Whether the state of another node was found to differ from the one here.
+     */
+    public boolean isDesynced() {
+        return this.desynced;
+    }
+
+    private static long checksum(World world) {
+        long hash = 1;
+        for (Player player : world.getPlayers()) {
+            hash = 31 * hash + player.getId().hashCode();
+            hash = 31 * hash + Double.doubleToLongBits(player.getX());
+            hash = 31 * hash + Double.doubleToLongBits(player.getY());
+            hash = 31 * hash + Double.doubleToLongBits(player.getMass());
+        }
+        for (Food food : world.getFoods()) {
+            hash = 31 * hash + food.getId().hashCode();
+        }
+        return hash;
+    }
+}
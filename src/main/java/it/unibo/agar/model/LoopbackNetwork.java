@@ -0,0 +1,163 @@
+package it.unibo.agar.model;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * In-process replacement of the broker, to run many nodes in the same JVM without RabbitMQ.
+ * Every message is delivered after the configured latency plus a random jitter; messages of the
+ * player and world channels are dropped with the configured probability, while the messages of
+ * the other channels are never lost, as they are confirmed by the real transport.
+ * As on a broker queue, every subscriber receives the messages of a channel in publishing order.
+ */
+public class LoopbackNetwork {
+    private static final Logger LOGGER = LoggerFactory.getLogger(LoopbackNetwork.class);
+
+    private final long latencyNanos;
+    private final long jitterNanos;
+    private final double lossRate;
+    private final Map<TransportChannel, List<Subscription>> subscriptions = new EnumMap<>(TransportChannel.class);
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "loopback-network-timer");
+        t.setDaemon(true);
+        return t;
+    });
+    private final ExecutorService deliveries = Executors.newVirtualThreadPerTaskExecutor();
+
+    public LoopbackNetwork(final long latencyMs, final long jitterMs, final double lossRate) {
+        this.latencyNanos = TimeUnit.MILLISECONDS.toNanos(latencyMs);
+        this.jitterNanos = TimeUnit.MILLISECONDS.toNanos(jitterMs);
+        this.lossRate = lossRate;
+        for (TransportChannel channel : TransportChannel.values()) {
+            subscriptions.put(channel, new CopyOnWriteArrayList<>());
+        }
+    }
+
+    public LoopbackNetwork() {
+        this(0, 0, 0);
+    }
+
+    /**
+     * Creates the transport of a new node attached to this network.
+     */
+    public Transport connect() {
+        return new LoopbackTransport(this);
+    }
+
+    public void shutdown() {
+        timer.shutdownNow();
+        deliveries.shutdownNow();
+    }
+
+    void subscribe(final LoopbackTransport owner, final TransportChannel channel,
+                   final Transport.MessageHandler handler) {
+        subscriptions.get(channel).add(new Subscription(owner, channel, handler));
+    }
+
+    void unsubscribeAll(final LoopbackTransport owner) {
+        subscriptions.values().forEach(list -> list.removeIf(s -> s.owner == owner));
+    }
+
+    void publish(final TransportChannel channel, final String routingKey, final byte[] message) {
+        final boolean lossy = channel == TransportChannel.PLAYER || channel == TransportChannel.WORLD;
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (Subscription subscription : subscriptions.get(channel)) {
+            if (!subscription.owner.accepts(channel, routingKey)) {
+                continue;
+            }
+            if (lossy && lossRate > 0 && random.nextDouble() < lossRate) {
+                continue;
+            }
+            final long delay = latencyNanos + (jitterNanos > 0 ? random.nextLong(jitterNanos) : 0);
+            subscription.schedule(message, delay);
+        }
+    }
+
+    /**
+     * Topic matching as done by the broker: {@code *} matches one word, {@code #} zero or more.
+     */
+    static boolean matches(final String bindingKey, final String routingKey) {
+        return matches(bindingKey.split("\\."), 0, routingKey.split("\\."), 0);
+    }
+
+    private static boolean matches(final String[] pattern, final int p, final String[] words, final int w) {
+        if (p == pattern.length) {
+            return w == words.length;
+        }
+        if (pattern[p].equals("#")) {
+            for (int skip = w; skip <= words.length; skip++) {
+                if (matches(pattern, p + 1, words, skip)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return w < words.length && (pattern[p].equals("*") || pattern[p].equals(words[w]))
+                && matches(pattern, p + 1, words, w + 1);
+    }
+
+    private final class Subscription {
+        private final LoopbackTransport owner;
+        private final TransportChannel channel;
+        private final Transport.MessageHandler handler;
+        private final Queue<byte[]> ready = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean draining = new AtomicBoolean(false);
+        private long lastDeliveryNanos;
+
+        private Subscription(final LoopbackTransport owner, final TransportChannel channel,
+                             final Transport.MessageHandler handler) {
+            this.owner = owner;
+            this.channel = channel;
+            this.handler = handler;
+        }
+
+        private void schedule(final byte[] message, final long delayNanos) {
+            if (latencyNanos == 0 && jitterNanos == 0) {
+                deliver(message);
+                return;
+            }
+            final long wait;
+            synchronized (this) {
+                // A message never overtakes the ones published before it
+                final long now = System.nanoTime();
+                lastDeliveryNanos = Math.max(now + delayNanos, lastDeliveryNanos);
+                wait = lastDeliveryNanos - now;
+            }
+            timer.schedule(() -> deliver(message), wait, TimeUnit.NANOSECONDS);
+        }
+
+        private void deliver(final byte[] message) {
+            ready.add(message);
+            if (draining.compareAndSet(false, true)) {
+                deliveries.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            do {
+                byte[] message;
+                while ((message = ready.poll()) != null) {
+                    try {
+                        handler.onMessage(message);
+                    } catch (Exception e) {
+                        LOGGER.error("Error handling a {} message", channel, e);
+                    }
+                }
+                draining.set(false);
+            } while (!ready.isEmpty() && draining.compareAndSet(false, true));
+        }
+    }
+}
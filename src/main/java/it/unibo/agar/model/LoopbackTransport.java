@@ -0,0 +1,65 @@
+package it.unibo.agar.model;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * Transport of a node attached to a {@link LoopbackNetwork}. Closing it detaches the node, as if
+ * it crashed.
+ */
+public class LoopbackTransport implements Transport {
+    private final LoopbackNetwork network;
+    private final Map<TransportChannel, Set<String>> bindingKeys = new EnumMap<>(TransportChannel.class);
+    private volatile boolean closed = false;
+
+    LoopbackTransport(final LoopbackNetwork network) {
+        this.network = network;
+        for (TransportChannel channel : TransportChannel.values()) {
+            bindingKeys.put(channel, new CopyOnWriteArraySet<>());
+        }
+    }
+
+    @Override
+    public void publish(final TransportChannel channel, final String routingKey, final byte[] message) {
+        if (!closed) {
+            network.publish(channel, routingKey, message);
+        }
+    }
+
+    @Override
+    public void bind(final TransportChannel channel, final String bindingKey) {
+        bindingKeys.get(channel).add(bindingKey);
+    }
+
+    @Override
+    public void unbind(final TransportChannel channel, final String bindingKey) {
+        bindingKeys.get(channel).remove(bindingKey);
+    }
+
+    boolean accepts(final TransportChannel channel, final String routingKey) {
+        if (!channel.isRouted()) {
+            return true;
+        }
+        for (String bindingKey : bindingKeys.get(channel)) {
+            if (LoopbackNetwork.matches(bindingKey, routingKey)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void subscribe(final TransportChannel channel, final MessageHandler handler) {
+        if (!closed) {
+            network.subscribe(this, channel, handler);
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        network.unsubscribeAll(this);
+    }
+}
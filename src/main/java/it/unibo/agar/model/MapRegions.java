@@ -0,0 +1,115 @@
+package it.unibo.agar.model;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Square regions the map is split into for interest management. World updates are published per
+ * region with routing key {@code region.<index>}, so a node receives only the regions it is bound
+ * to. An entity belongs to the region containing its center; entities off the map belong to the
+ * nearest border region.
+ */
+public class MapRegions {
+    public static final String WHOLE_MAP_KEY = "region.*";
+    private static final String KEY_PREFIX = "region.";
+
+    private final int width;
+    private final int height;
+    private final double regionSize;
+    private final int columns;
+    private final int rows;
+
+    public MapRegions(final int width, final int height, final double regionSize) {
+        this.width = width;
+        this.height = height;
+        this.regionSize = regionSize;
+        this.columns = Math.max(1, (int) Math.ceil(width / regionSize));
+        this.rows = Math.max(1, (int) Math.ceil(height / regionSize));
+    }
+
+    public int count() {
+        return columns * rows;
+    }
+
+    public int regionOf(final double x, final double y) {
+        return row(y) * columns + column(x);
+    }
+
+    public int originX(final int region) {
+        return (int) ((region % columns) * regionSize);
+    }
+
+    public int originY(final int region) {
+        return (int) ((region / columns) * regionSize);
+    }
+
+    /**
+     * Width of a region, less than the region size for the last column if it does not fit the map.
+     */
+    public int widthOf(final int region) {
+        return (int) Math.min(regionSize, width - originX(region));
+    }
+
+    public int heightOf(final int region) {
+        return (int) Math.min(regionSize, height - originY(region));
+    }
+
+    public double centerX(final int region) {
+        return originX(region) + widthOf(region) / 2.0;
+    }
+
+    public double centerY(final int region) {
+        return originY(region) + heightOf(region) / 2.0;
+    }
+
+    public static String routingKey(final int region) {
+        return KEY_PREFIX + region;
+    }
+
+    /**
+     * The regions intersecting the square of the given half side centered on a point.
+     */
+    public BitSet around(final double x, final double y, final double range) {
+        final BitSet regions = new BitSet(count());
+        for (int r = row(y - range); r <= row(y + range); r++) {
+            for (int c = column(x - range); c <= column(x + range); c++) {
+                regions.set(r * columns + c);
+            }
+        }
+        return regions;
+    }
+
+    public BitSet all() {
+        final BitSet regions = new BitSet(count());
+        regions.set(0, count());
+        return regions;
+    }
+
+    /**
+     * Splits a world into one world per region, holding the entities of that region.
+     */
+    public World[] split(final World world) {
+        final List<List<Player>> players = new ArrayList<>(count());
+        final List<List<Food>> foods = new ArrayList<>(count());
+        for (int region = 0; region < count(); region++) {
+            players.add(new ArrayList<>());
+            foods.add(new ArrayList<>());
+        }
+        world.getPlayers().forEach(p -> players.get(regionOf(p.getX(), p.getY())).add(p));
+        world.getFoods().forEach(f -> foods.get(regionOf(f.getX(), f.getY())).add(f));
+        final World[] regions = new World[count()];
+        for (int region = 0; region < count(); region++) {
+            regions[region] = new World(width, height, players.get(region), foods.get(region));
+        }
+        return regions;
+    }
+
+    private int column(final double x) {
+        return Math.min(Math.max((int) Math.floor(x / regionSize), 0), columns - 1);
+    }
+
+    private int row(final double y) {
+        return Math.min(Math.max((int) Math.floor(y / regionSize), 0), rows - 1);
+    }
+}
@@ -0,0 +1,49 @@
+package it.unibo.agar.model;
+
+import java.io.IOException;
+
+/**
+ * Transport counting the messages and bytes sent and received on every channel, and the time
+ * spent publishing.
+ */
+public class MeteredTransport implements Transport {
+    private final Transport transport;
+    private final GameMetrics metrics;
+
+    public MeteredTransport(final Transport transport, final GameMetrics metrics) {
+        this.transport = transport;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void publish(final TransportChannel channel, final String routingKey, final byte[] message)
+            throws IOException {
+        final long start = System.nanoTime();
+        transport.publish(channel, routingKey, message);
+        metrics.recordSince(GameMetrics.Metric.PUBLISH, start);
+        metrics.messageOut(channel, message.length);
+    }
+
+    @Override
+    public void subscribe(final TransportChannel channel, final MessageHandler handler) throws IOException {
+        transport.subscribe(channel, message -> {
+            metrics.messageIn(channel, message.length);
+            handler.onMessage(message);
+        });
+    }
+
+    @Override
+    public void bind(final TransportChannel channel, final String bindingKey) throws IOException {
+        transport.bind(channel, bindingKey);
+    }
+
+    @Override
+    public void unbind(final TransportChannel channel, final String bindingKey) throws IOException {
+        transport.unbind(channel, bindingKey);
+    }
+
+    @Override
+    public void close() throws IOException {
+        transport.close();
+    }
+}
@@ -0,0 +1,93 @@
+package it.unibo.agar.model;
+
+/**
+ * Phi accrual failure detector over a fixed set of monitored sources. Instead of a fixed timeout it
+ * tells how unlikely the current silence of a source is, given the mean and deviation of the
+ * recent intervals between its heartbeats, so it adapts to the actual rate and jitter. A phi of 1
+ * means a 10% chance that the source is still alive and just late, 2 means 1%, and so on.
+ */
+class PhiAccrualFailureDetector {
+    private final int windowSize;
+    private final double minStdDeviationMs;
+    private final double acceptablePauseMs;
+    private final long firstIntervalEstimateMs;
+    private final long[][] intervals;
+    private final int[] sizes;
+    private final int[] nextIntervals;
+    private final long[] lastHeartbeats;
+
+    /**
+     * @param sources                 number of monitored sources
+     * @param windowSize              how many recent intervals are used for the estimate
+     * @param minStdDeviationMs       lower bound of the deviation, so that a very regular source is
+     *                                not suspected at the first small delay
+     * @param acceptablePauseMs       delay added to the mean interval, tolerated without suspicion
+     * @param firstIntervalEstimateMs expected interval of a source not heard enough yet
+     */
+    PhiAccrualFailureDetector(final int sources, final int windowSize, final double minStdDeviationMs,
+                              final double acceptablePauseMs, final long firstIntervalEstimateMs) {
+        this.windowSize = windowSize;
+        this.minStdDeviationMs = minStdDeviationMs;
+        this.acceptablePauseMs = acceptablePauseMs;
+        this.firstIntervalEstimateMs = firstIntervalEstimateMs;
+        this.intervals = new long[sources][windowSize];
+        this.sizes = new int[sources];
+        this.nextIntervals = new int[sources];
+        this.lastHeartbeats = new long[sources];
+    }
+
+    void heartbeat(final int source, final long nowMs) {
+        if (lastHeartbeats[source] == 0) {
+            reset(source, nowMs);
+            return;
+        }
+        final long interval = nowMs - lastHeartbeats[source];
+        if (interval <= 0) {
+            return; // Several heartbeats of the same batch
+        }
+        add(source, interval);
+        lastHeartbeats[source] = nowMs;
+    }
+
+    /**
+     * Forgets the history of the source and starts monitoring it as if it had just been heard.
+     */
+    void reset(final int source, final long nowMs) {
+        sizes[source] = 0;
+        nextIntervals[source] = 0;
+        add(source, firstIntervalEstimateMs - firstIntervalEstimateMs / 4);
+        add(source, firstIntervalEstimateMs + firstIntervalEstimateMs / 4);
+        lastHeartbeats[source] = nowMs;
+    }
+
+    long lastHeartbeat(final int source) {
+        return lastHeartbeats[source];
+    }
+
+    double phi(final int source, final long nowMs) {
+        if (lastHeartbeats[source] == 0) {
+            return 0;
+        }
+        double sum = 0;
+        double squares = 0;
+        for (int i = 0; i < sizes[source]; i++) {
+            sum += intervals[source][i];
+            squares += (double) intervals[source][i] * intervals[source][i];
+        }
+        final double mean = sum / sizes[source];
+        final double deviation = Math.max(Math.sqrt(Math.max(squares / sizes[source] - mean * mean, 0)),
+                minStdDeviationMs);
+        final double elapsed = nowMs - lastHeartbeats[source];
+        // Logistic approximation of the normal distribution
+        final double y = (elapsed - mean - acceptablePauseMs) / deviation;
+        final double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+        final double stillAlive = y > 0 ? e / (1 + e) : 1 - 1 / (1 + e);
+        return -Math.log10(Math.max(stillAlive, Double.MIN_VALUE));
+    }
+
+    private void add(final int source, final long interval) {
+        intervals[source][nextIntervals[source]] = interval;
+        nextIntervals[source] = (nextIntervals[source] + 1) % windowSize;
+        sizes[source] = Math.min(sizes[source] + 1, windowSize);
+    }
+}
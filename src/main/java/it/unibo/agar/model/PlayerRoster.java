@@ -0,0 +1,83 @@
+package it.unibo.agar.model;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Compact numeric ids of the players, written on the wire instead of their names. The name of a
+ * player travels once, in the {@link RosterMessage} announcing its id.
+ * Thread safe: filled by the transport threads and read by the codec.
+ */
+public class PlayerRoster {
+    public static final int UNKNOWN = -1;
+
+    private final Map<Integer, String> names = new ConcurrentHashMap<>();
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private final Set<Integer> missing = ConcurrentHashMap.newKeySet(); // Met on the wire before their announcement
+
+    /**
+     * An id picked at random, so that nodes can choose the id of their own player without asking
+     * anybody; with 31 bits, a clash is unlikely even with thousands of players.
+     */
+    public static int randomId() {
+        return ThreadLocalRandom.current().nextInt(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Maps the id to the name, replacing any previous id of the name and name of the id.
+     *
+     * @return whether the roster changed
+     */
+    public synchronized boolean put(final int id, final String name) {
+        final Integer previousId = ids.put(name, id);
+        if (previousId != null && previousId == id) {
+            return false;
+        }
+        if (previousId != null) {
+            names.remove(previousId);
+        }
+        missing.remove(id);
+        final String previousName = names.put(id, name);
+        if (previousName != null) {
+            ids.remove(previousName);
+        }
+        return true;
+    }
+
+    /**
+     * Notes an id met on the wire whose announcement did not arrive, or was lost.
+     */
+    public void missing(final int id) {
+        if (!names.containsKey(id)) {
+            missing.add(id);
+        }
+    }
+
+    /**
+     * The ids noted missing since the last call.
+     */
+    public List<Integer> takeMissing() {
+        final List<Integer> taken = new ArrayList<>();
+        for (Iterator<Integer> iterator = missing.iterator(); iterator.hasNext(); ) {
+            taken.add(iterator.next());
+            iterator.remove();
+        }
+        return taken;
+    }
+
+    public int idOf(final String name) {
+        return ids.getOrDefault(name, UNKNOWN);
+    }
+
+    /**
+     * The name of the player with the id, or null if its announcement did not arrive yet.
+     */
+    public String nameOf(final int id) {
+        return names.get(id);
+    }
+}
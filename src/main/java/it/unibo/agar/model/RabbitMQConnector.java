@@ -1,116 +1,227 @@
 package it.unibo.agar.model;
 
 import com.rabbitmq.client.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.TimeoutException;
 
-public class RabbitMQConnector {
+public class RabbitMQConnector implements Transport {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RabbitMQConnector.class);
     private static final String EXCHANGE_NAME_PLAYER_POSITION = "PlayerPosition";
-    private static final String EXCHANGE_NAME_ACTUAL_WORLD = "ActualWorld";
+    private static final String EXCHANGE_NAME_ACTUAL_WORLD = "ActualWorldRegions"; // Topic, routed by region
     private static final String EXCHANGE_NAME_ELECTION = "Election";
     private static final String EXCHANGE_NAME_VICTORY = "Victory";
-    private Channel playerChannel;
-    private Channel worldChannel;
-    private Channel electionChannel;
-    private Channel victoryChannel;
-
-    private String playerQueueName;
-    private String worldQueueName;
-    private String electionQueueName;
-    private String victoryQueueName;
+    private static final String EXCHANGE_NAME_INPUT = "LockstepInput";
+    private static final String EXCHANGE_NAME_ROSTER = "Roster";
+    private static final String EXCHANGE_NAME_EAT = "Eat";
+    private static final AMQP.BasicProperties PERSISTENT = new AMQP.BasicProperties.Builder().deliveryMode(2).build();
+    private static final AMQP.BasicProperties TRANSIENT = new AMQP.BasicProperties.Builder().deliveryMode(1).build();
+
+    private final Map<TransportChannel, TransportProfile> profiles = new EnumMap<>(TransportChannel.class);
+    private final Map<TransportChannel, Binding> bindings = new EnumMap<>(TransportChannel.class);
+    private Connection connection;
+
+    /**
+     * @param unconfirmed the messages published and not confirmed yet, by publish sequence number;
+     *                    null if the profile has no confirms
+     */
+    private record Binding(Channel channel, String exchange, String queue, TransportProfile profile,
+                           ConcurrentNavigableMap<Long, Unconfirmed> unconfirmed) { }
+
+    private record Unconfirmed(String routingKey, byte[] message) { }
+
+    public RabbitMQConnector(TransportProfile playerProfile, TransportProfile worldProfile,
+                             TransportProfile electionProfile, TransportProfile victoryProfile,
+                             TransportProfile inputProfile, TransportProfile rosterProfile,
+                             TransportProfile eatProfile) {
+        profiles.put(TransportChannel.PLAYER, playerProfile);
+        profiles.put(TransportChannel.WORLD, worldProfile);
+        profiles.put(TransportChannel.ELECTION, electionProfile);
+        profiles.put(TransportChannel.VICTORY, victoryProfile);
+        profiles.put(TransportChannel.INPUT, inputProfile);
+        profiles.put(TransportChannel.ROSTER, rosterProfile);
+        profiles.put(TransportChannel.EAT, eatProfile);
+    }
+
+    public RabbitMQConnector() {
+        this(TransportProfile.STREAM, TransportProfile.CONFLATED, TransportProfile.RELIABLE, TransportProfile.RELIABLE,
+                TransportProfile.STREAM, TransportProfile.RELIABLE, TransportProfile.RELIABLE);
+    }
 
     public void connect(String hostAddress) throws IOException, TimeoutException {
         ConnectionFactory factory = new ConnectionFactory();
         factory.setHost(hostAddress);
-        Connection connection = factory.newConnection();
+        this.connection = factory.newConnection();
         setElectionChannel(connection);
         setPlayerChannel(connection);
         setWorldChannel(connection);
         setVictoryChannel(connection);
+        setInputChannel(connection);
+        setRosterChannel(connection);
+        setEatChannel(connection);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (connection != null) {
+            for (Map.Entry<TransportChannel, Binding> binding : bindings.entrySet()) {
+                if (binding.getValue().unconfirmed() != null && !binding.getValue().unconfirmed().isEmpty()) {
+                    LOGGER.warn("{} {} messages not confirmed by the broker at close",
+                            binding.getValue().unconfirmed().size(), binding.getKey());
+                }
+            }
+            connection.close();
+        }
     }
 
     private void setElectionChannel(Connection connection) throws IOException {
-        this.electionChannel = connection.createChannel();
+        Channel electionChannel = connection.createChannel();
         electionChannel.exchangeDeclare(EXCHANGE_NAME_ELECTION, BuiltinExchangeType.FANOUT, true);
-        electionQueueName = electionChannel.queueDeclare("", false, true, true, null).getQueue();
+        String electionQueueName = electionChannel.queueDeclare("", false, true, true, null).getQueue();
         electionChannel.queueBind(electionQueueName, EXCHANGE_NAME_ELECTION, "");
-        electionChannel.basicQos(1, false);
+        register(TransportChannel.ELECTION, electionChannel, EXCHANGE_NAME_ELECTION, electionQueueName);
     }
 
     private void setWorldChannel(Connection connection) throws IOException {
-        this.worldChannel = connection.createChannel();
-        worldChannel.exchangeDeclare(EXCHANGE_NAME_ACTUAL_WORLD, "fanout");
-        worldQueueName = worldChannel.queueDeclare().getQueue();
-        worldChannel.queueBind(worldQueueName, EXCHANGE_NAME_ACTUAL_WORLD, "");
-        worldChannel.basicQos(1, false);
+        Channel worldChannel = connection.createChannel();
+        worldChannel.exchangeDeclare(EXCHANGE_NAME_ACTUAL_WORLD, BuiltinExchangeType.TOPIC);
+        String worldQueueName = worldChannel.queueDeclare("", false, true, true,
+                queueArguments(profiles.get(TransportChannel.WORLD))).getQueue(); // Bound to the regions of interest later
+        register(TransportChannel.WORLD, worldChannel, EXCHANGE_NAME_ACTUAL_WORLD, worldQueueName);
     }
 
     private void setPlayerChannel(Connection connection) throws IOException {
-        this.playerChannel = connection.createChannel();
+        Channel playerChannel = connection.createChannel();
         playerChannel.exchangeDeclare(EXCHANGE_NAME_PLAYER_POSITION, "fanout");
-        playerQueueName = playerChannel.queueDeclare().getQueue();
+        String playerQueueName = playerChannel.queueDeclare().getQueue();
         playerChannel.queueBind(playerQueueName, EXCHANGE_NAME_PLAYER_POSITION, "");
-        playerChannel.basicQos(1, false);
+        register(TransportChannel.PLAYER, playerChannel, EXCHANGE_NAME_PLAYER_POSITION, playerQueueName);
     }
 
     private void setVictoryChannel(Connection connection) throws IOException {
-        this.victoryChannel = connection.createChannel();
+        Channel victoryChannel = connection.createChannel();
         victoryChannel.exchangeDeclare(EXCHANGE_NAME_VICTORY, "fanout");
-        victoryQueueName = victoryChannel.queueDeclare().getQueue();
+        String victoryQueueName = victoryChannel.queueDeclare().getQueue();
         victoryChannel.queueBind(victoryQueueName, EXCHANGE_NAME_VICTORY, "");
-        victoryChannel.basicQos(1, false);
-    }
-
-    public void setElectionMessageCallback(DeliverCallback callback) throws IOException {
-        electionChannel.basicConsume(electionQueueName, false, callback, consumerTag -> { });
-    }
-
-    public void setPlayerMessageCallback(DeliverCallback callback) throws IOException {
-        playerChannel.basicConsume(playerQueueName, false, callback, consumerTag -> { });
-    }
-
-    public void setWorldMessageCallback(DeliverCallback callback) throws IOException {
-        worldChannel.basicConsume(worldQueueName, false, callback, consumerTag -> { });
-    }
-
-    public void setVictoryMessageCallback(DeliverCallback callback) throws IOException {
-        victoryChannel.basicConsume(victoryQueueName, false, callback, consumerTag -> { });
-    }
-
-    public void publishPlayerMessage(String message) throws IOException {
-        playerChannel.basicPublish(EXCHANGE_NAME_PLAYER_POSITION, "", new AMQP.BasicProperties.Builder().deliveryMode(2).build(),
-                message.getBytes(StandardCharsets.UTF_8));
-    }
-
-    public void publishWorldMessage(String message) throws IOException {
-        worldChannel.basicPublish(EXCHANGE_NAME_ACTUAL_WORLD, "", new AMQP.BasicProperties.Builder().deliveryMode(2).build(),
-                message.getBytes(StandardCharsets.UTF_8));
-    }
-
-    public void publishElectionMessage(String message) throws IOException {
-        electionChannel.basicPublish(EXCHANGE_NAME_ELECTION, "", new AMQP.BasicProperties.Builder().deliveryMode(2).build(),
-                message.getBytes(StandardCharsets.UTF_8));
-    }
-
-    public void publishVictoryMessage(String message) throws IOException {
-        victoryChannel.basicPublish(EXCHANGE_NAME_VICTORY, "", new AMQP.BasicProperties.Builder().deliveryMode(2).build(),
-                message.getBytes(StandardCharsets.UTF_8));
-    }
-
-    public void worldChannelAck(Delivery delivery) throws IOException {
-        worldChannel.basicAck(delivery.getEnvelope().getDeliveryTag(), true);
-    }
-
-    public void playerChannelAck(Delivery delivery) throws IOException {
-        playerChannel.basicAck(delivery.getEnvelope().getDeliveryTag(), true);
-    }
-
-    public void electionChannelAck(Delivery delivery) throws IOException {
-        electionChannel.basicAck(delivery.getEnvelope().getDeliveryTag(), true);
-    }
-
-    public void victoryChannelAck(Delivery delivery) throws IOException {
-        victoryChannel.basicAck(delivery.getEnvelope().getDeliveryTag(), true);
+        register(TransportChannel.VICTORY, victoryChannel, EXCHANGE_NAME_VICTORY, victoryQueueName);
+    }
+
+    private void setInputChannel(Connection connection) throws IOException {
+        Channel inputChannel = connection.createChannel();
+        inputChannel.exchangeDeclare(EXCHANGE_NAME_INPUT, "fanout");
+        String inputQueueName = inputChannel.queueDeclare().getQueue();
+        inputChannel.queueBind(inputQueueName, EXCHANGE_NAME_INPUT, "");
+        register(TransportChannel.INPUT, inputChannel, EXCHANGE_NAME_INPUT, inputQueueName);
+    }
+
+    private void setRosterChannel(Connection connection) throws IOException {
+        Channel rosterChannel = connection.createChannel();
+        rosterChannel.exchangeDeclare(EXCHANGE_NAME_ROSTER, "fanout");
+        String rosterQueueName = rosterChannel.queueDeclare().getQueue();
+        rosterChannel.queueBind(rosterQueueName, EXCHANGE_NAME_ROSTER, "");
+        register(TransportChannel.ROSTER, rosterChannel, EXCHANGE_NAME_ROSTER, rosterQueueName);
+    }
+
+    private void setEatChannel(Connection connection) throws IOException {
+        Channel eatChannel = connection.createChannel();
+        eatChannel.exchangeDeclare(EXCHANGE_NAME_EAT, "fanout");
+        String eatQueueName = eatChannel.queueDeclare().getQueue();
+        eatChannel.queueBind(eatQueueName, EXCHANGE_NAME_EAT, "");
+        register(TransportChannel.EAT, eatChannel, EXCHANGE_NAME_EAT, eatQueueName);
+    }
+
+    private static Map<String, Object> queueArguments(TransportProfile profile) {
+        if (profile.maxBacklog() <= 0) {
+            return null;
+        }
+        return Map.of("x-max-length", profile.maxBacklog(), "x-overflow", "drop-head");
+    }
+
+    private void register(TransportChannel transportChannel, Channel channel, String exchange, String queue)
+            throws IOException {
+        TransportProfile profile = profiles.get(transportChannel);
+        channel.basicQos(profile.prefetch(), false);
+        ConcurrentNavigableMap<Long, Unconfirmed> unconfirmed = null;
+        if (profile.confirms()) {
+            final ConcurrentNavigableMap<Long, Unconfirmed> pending = new ConcurrentSkipListMap<>();
+            channel.confirmSelect();
+            channel.addConfirmListener(
+                    (sequence, multiple) -> settled(pending, sequence, multiple).clear(),
+                    (sequence, multiple) -> republish(transportChannel, settled(pending, sequence, multiple)));
+            unconfirmed = pending;
+        }
+        bindings.put(transportChannel, new Binding(channel, exchange, queue, profile, unconfirmed));
+    }
+
+    private static NavigableMap<Long, Unconfirmed> settled(ConcurrentNavigableMap<Long, Unconfirmed> unconfirmed,
+                                                           long sequence, boolean multiple) {
+        return multiple ? unconfirmed.headMap(sequence, true) : unconfirmed.subMap(sequence, true, sequence, true);
+    }
+
+    /**
+     * Publishes again the messages the broker could not take, on the connection thread.
+     */
+    private void republish(TransportChannel transportChannel, NavigableMap<Long, Unconfirmed> rejected)
+            throws IOException {
+        final List<Unconfirmed> messages = new ArrayList<>(rejected.values());
+        rejected.clear();
+        LOGGER.warn("{} {} messages rejected by the broker, publishing them again", messages.size(), transportChannel);
+        for (Unconfirmed message : messages) {
+            publish(transportChannel, message.routingKey(), message.message());
+        }
+    }
+
+    @Override
+    public void subscribe(TransportChannel transportChannel, MessageHandler handler) throws IOException {
+        Binding binding = bindings.get(transportChannel);
+        DeliverCallback callback = (consumerTag, delivery) -> {
+            try {
+                handler.onMessage(delivery.getBody());
+            } catch (Exception e) { // Not rethrown, the client would close the channel
+                LOGGER.error("Error handling a {} message", transportChannel, e);
+            } finally {
+                if (!binding.profile().autoAck()) {
+                    binding.channel().basicAck(delivery.getEnvelope().getDeliveryTag(), true);
+                }
+            }
+        };
+        binding.channel().basicConsume(binding.queue(), binding.profile().autoAck(), callback, consumerTag -> { });
+    }
+
+    @Override
+    public void bind(TransportChannel transportChannel, String bindingKey) throws IOException {
+        Binding binding = bindings.get(transportChannel);
+        binding.channel().queueBind(binding.queue(), binding.exchange(), bindingKey);
+    }
+
+    @Override
+    public void unbind(TransportChannel transportChannel, String bindingKey) throws IOException {
+        Binding binding = bindings.get(transportChannel);
+        binding.channel().queueUnbind(binding.queue(), binding.exchange(), bindingKey);
+    }
+
+    @Override
+    public void publish(TransportChannel transportChannel, String routingKey, byte[] message) throws IOException {
+        Binding binding = bindings.get(transportChannel);
+        Channel channel = binding.channel();
+        AMQP.BasicProperties properties = binding.profile().persistent() ? PERSISTENT : TRANSIENT;
+        if (binding.unconfirmed() == null) {
+            channel.basicPublish(binding.exchange(), routingKey, properties, message);
+            return;
+        }
+        // Confirms arrive on the connection thread, the caller never waits for them
+        synchronized (channel) {
+            binding.unconfirmed().put(channel.getNextPublishSeqNo(), new Unconfirmed(routingKey, message));
+            channel.basicPublish(binding.exchange(), routingKey, properties, message);
+        }
     }
 }
@@ -0,0 +1,51 @@
+package it.unibo.agar.model;
+
+import java.io.IOException;
+
+/**
+ * Transport appending every message sent and received to a {@link SessionRecorder}, which writes
+ * them on a thread of its own.
+ */
+public class RecordingTransport implements Transport {
+    private final Transport transport;
+    private final SessionRecorder recorder;
+
+    public RecordingTransport(final Transport transport, final SessionRecorder recorder) {
+        this.transport = transport;
+        this.recorder = recorder;
+    }
+
+    @Override
+    public void publish(final TransportChannel channel, final String routingKey, final byte[] message)
+            throws IOException {
+        recorder.record(SessionRecorder.Direction.OUT, channel, routingKey, message);
+        transport.publish(channel, routingKey, message);
+    }
+
+    @Override
+    public void subscribe(final TransportChannel channel, final MessageHandler handler) throws IOException {
+        transport.subscribe(channel, message -> {
+            recorder.record(SessionRecorder.Direction.IN, channel, "", message);
+            handler.onMessage(message);
+        });
+    }
+
+    @Override
+    public void bind(final TransportChannel channel, final String bindingKey) throws IOException {
+        transport.bind(channel, bindingKey);
+    }
+
+    @Override
+    public void unbind(final TransportChannel channel, final String bindingKey) throws IOException {
+        transport.unbind(channel, bindingKey);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            transport.close();
+        } finally {
+            recorder.close();
+        }
+    }
+}
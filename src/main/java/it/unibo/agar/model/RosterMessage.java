@@ -0,0 +1,35 @@
+package it.unibo.agar.model;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Announcement of the compact id of a player. A node joining announces its own, and every node
+ * that did not know it replies with its own, so that the newcomer learns the others. A message
+ * with no name is a {@linkplain #query(int) query}.
+ */
+public record RosterMessage(int playerId, String name, boolean reply) {
+    @JsonCreator
+    public RosterMessage(
+            @JsonProperty("playerId") int playerId,
+            @JsonProperty("name") String name,
+            @JsonProperty("reply") boolean reply) {
+        this.playerId = playerId;
+        this.name = name;
+        this.reply = reply;
+    }
+
+    /**
+     * Asks the player with the id to announce itself again, for a node that met the id on the wire
+     * but missed its announcement.
+     */
+    public static RosterMessage query(int playerId) {
+        return new RosterMessage(playerId, "", false);
+    }
+
+    @JsonIgnore
+    public boolean isQuery() {
+        return name.isEmpty();
+    }
+}
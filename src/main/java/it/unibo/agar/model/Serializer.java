@@ -1,28 +1,86 @@
 package it.unibo.agar.model;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
 
+/**
+ * Encodes and decodes the messages exchanged between nodes through a {@link WireCodec}.
+ * The compact binary codec is used unless the {@value #CODEC_PROPERTY} system property is set to
+ * {@code json}, which keeps the traffic human readable for debugging, with the names of the players
+ * in full instead of their roster ids.
+ */
 public class Serializer {
-    private final ObjectMapper mapper;
+    public static final String CODEC_PROPERTY = "agar.codec";
+    private final WireCodec codec;
 
     public Serializer() {
-        mapper = new ObjectMapper();
+        this(new PlayerRoster());
     }
 
-    public String serializeObject(Object object) throws JsonProcessingException {
-        return mapper.writeValueAsString(object);
+    public Serializer(PlayerRoster roster) {
+        this("json".equalsIgnoreCase(System.getProperty(CODEC_PROPERTY)) ? new JsonCodec() : new BinaryCodec(roster));
     }
 
-    public World deserializeWorld(String message) throws JsonProcessingException {
-        return mapper.readValue(message, World.class);
+    public Serializer(WireCodec codec) {
+        this.codec = codec;
     }
 
-    public Player deserializePlayer(String message) throws JsonProcessingException {
-        return mapper.readValue(message, Player.class);
+    public byte[] serializePlayer(Player player) throws IOException {
+        return codec.encodePlayer(player);
     }
 
-    public ElectionMessage deserializeElectionMessage(String message) throws JsonProcessingException {
-        return mapper.readValue(message, ElectionMessage.class);
+    public byte[] serializeWorld(World world) throws IOException {
+        return codec.encodeWorld(world);
+    }
+
+    public byte[] serializeWorldMessage(WorldMessage message) throws IOException {
+        return codec.encodeWorldMessage(message);
+    }
+
+    public byte[] serializeElectionMessage(ElectionMessage message) throws IOException {
+        return codec.encodeElectionMessage(message);
+    }
+
+    public byte[] serializeInputMessage(InputMessage message) throws IOException {
+        return codec.encodeInputMessage(message);
+    }
+
+    public byte[] serializeRosterMessage(RosterMessage message) throws IOException {
+        return codec.encodeRosterMessage(message);
+    }
+
+    public byte[] serializeEatMessage(EatMessage message) throws IOException {
+        return codec.encodeEatMessage(message);
+    }
+
+    public World deserializeWorld(byte[] message) throws IOException {
+        return codec.decodeWorld(message);
+    }
+
+    public WorldMessage deserializeWorldMessage(byte[] message) throws IOException {
+        return codec.decodeWorldMessage(message);
+    }
+
+    public WorldMessage.Header deserializeWorldMessageHeader(byte[] message) throws IOException {
+        return codec.decodeWorldMessageHeader(message);
+    }
+
+    public Player deserializePlayer(byte[] message) throws IOException {
+        return codec.decodePlayer(message);
+    }
+
+    public ElectionMessage deserializeElectionMessage(byte[] message) throws IOException {
+        return codec.decodeElectionMessage(message);
+    }
+
+    public InputMessage deserializeInputMessage(byte[] message) throws IOException {
+        return codec.decodeInputMessage(message);
+    }
+
+    public RosterMessage deserializeRosterMessage(byte[] message) throws IOException {
+        return codec.decodeRosterMessage(message);
+    }
+
+    public EatMessage deserializeEatMessage(byte[] message) throws IOException {
+        return codec.decodeEatMessage(message);
     }
 }
@@ -0,0 +1,171 @@
+package it.unibo.agar.model;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Append-only log of the messages sent and received by a node, for replaying a session offline.
+ * The file is written through memory-mapped chunks by a thread of its own: recording a message
+ * only queues it, and if the writer falls behind messages are dropped and counted rather than
+ * slowing down the caller. The pages are flushed by the operating system, so a session survives
+ * a crash of the node up to the last message written.
+ * <p>
+ * The file starts with a magic number and the id of the node, followed by the records: length of
+ * the rest of the record, nanoseconds since the start of the session, direction, channel, routing
+ * key and message. A zero length ends the log.
+ */
+public class SessionRecorder implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SessionRecorder.class);
+    public static final String DIRECTORY_PROPERTY = "agar.recordDir"; // Nodes record their session there if set
+    private static final long MAGIC = 0x4147_4152_5245_4331L; // "AGARREC1"
+    private static final int CHUNK_SIZE = 16 * 1024 * 1024;
+    private static final int QUEUE_CAPACITY = 65_536;
+    private static final int RECORD_HEADER_BYTES = Integer.BYTES + Long.BYTES + 2 + Short.BYTES;
+
+    public enum Direction { IN, OUT }
+
+    public record Record(long timeNanos, Direction direction, TransportChannel channel, String routingKey,
+                         byte[] message) { }
+
+    public record Session(String nodeId, List<Record> records) { }
+
+    private final FileChannel file;
+    private final long startNanos = System.nanoTime();
+    private final BlockingQueue<Record> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final LongAdder dropped = new LongAdder();
+    private final Thread writer;
+    private MappedByteBuffer chunk; // Owned by the writer thread
+    private long chunkStart;
+    private volatile boolean closed = false;
+
+    public SessionRecorder(final Path path, final String nodeId) throws IOException {
+        this.file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.chunk = file.map(FileChannel.MapMode.READ_WRITE, 0, CHUNK_SIZE);
+        final byte[] id = nodeId.getBytes(StandardCharsets.UTF_8);
+        this.chunk.putLong(MAGIC);
+        this.chunk.putInt(id.length);
+        this.chunk.put(id);
+        this.writer = new Thread(this::write, "session-recorder-" + nodeId);
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Queues the message for the log, without waiting for it to be written.
+     */
+    public void record(final Direction direction, final TransportChannel channel, final String routingKey,
+                       final byte[] message) {
+        if (closed || !queue.offer(new Record(System.nanoTime() - startNanos, direction, channel, routingKey, message))) {
+            dropped.increment();
+        }
+    }
+
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    private void write() {
+        try {
+            while (!closed || !queue.isEmpty()) {
+                final Record record = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (record != null) {
+                    append(record);
+                }
+            }
+            chunk.putInt(0);
+            chunk.force();
+            file.truncate(chunkStart + chunk.position() - Integer.BYTES);
+            file.close();
+        } catch (IOException e) {
+            LOGGER.error("Session recording stopped", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void append(final Record record) throws IOException {
+        final byte[] key = record.routingKey().getBytes(StandardCharsets.UTF_8);
+        final int size = RECORD_HEADER_BYTES + key.length + record.message().length;
+        if (chunk.remaining() < size + Integer.BYTES) { // Room for the end marker too
+            chunk.putInt(0); // Where the next chunk starts, in case the node dies before writing to it
+            chunkStart += chunk.position() - Integer.BYTES;
+            chunk = file.map(FileChannel.MapMode.READ_WRITE, chunkStart, Math.max(CHUNK_SIZE, size + Integer.BYTES));
+        }
+        chunk.putInt(size - Integer.BYTES);
+        chunk.putLong(record.timeNanos());
+        chunk.put((byte) record.direction().ordinal());
+        chunk.put((byte) record.channel().ordinal());
+        chunk.putShort((short) key.length);
+        chunk.put(key);
+        chunk.put(record.message());
+    }
+
+    /**
+     * Stops recording once the queued messages are written.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (dropped() > 0) {
+            LOGGER.warn("{} messages were not recorded, the recorder could not keep up", dropped());
+        }
+    }
+
+    /**
+     * Loads a whole recorded session, also one whose node died while recording.
+     */
+    public static Session read(final Path path) throws IOException {
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            final ByteBuffer buffer = file.map(FileChannel.MapMode.READ_ONLY, 0, file.size());
+            if (buffer.getLong() != MAGIC) {
+                throw new IOException("Not a session recording: " + path);
+            }
+            final String nodeId = string(buffer, buffer.getInt());
+            final List<Record> records = new ArrayList<>();
+            try {
+                int size;
+                while (buffer.remaining() >= Integer.BYTES && (size = buffer.getInt()) > 0) {
+                    final int end = buffer.position() + size;
+                    final long timeNanos = buffer.getLong();
+                    final Direction direction = Direction.values()[buffer.get()];
+                    final TransportChannel channel = TransportChannel.values()[buffer.get()];
+                    final String routingKey = string(buffer, buffer.getShort());
+                    final byte[] message = new byte[end - buffer.position()];
+                    buffer.get(message);
+                    records.add(new Record(timeNanos, direction, channel, routingKey, message));
+                }
+            } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+                LOGGER.warn("Session recording {} ends with a partial record", path);
+            }
+            return new Session(nodeId, records);
+        }
+    }
+
+    private static String string(final ByteBuffer buffer, final int length) {
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
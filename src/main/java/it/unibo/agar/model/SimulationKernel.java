@@ -0,0 +1,357 @@
+package it.unibo.agar.model;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.IntConsumer;
+
+/**
+ * Mutable simulation core. Player and food state is kept in primitive arrays indexed by slot and
+ * moving, eating and spawning update it in place; an immutable {@link World} is only built when a
+ * snapshot is requested, and reused until the state changes again.
+ * Removing an entity moves the last slot into its place, so slots are not stable across removals.
+ * The kernel is not thread safe: it is meant to be confined to the thread running the game loop,
+ * other threads read the snapshots it produces.
+ */
+public final class SimulationKernel {
+    private static final double GRID_CELL_SIZE = 50;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final int width;
+    private final int height;
+
+    private final Map<String, Integer> playerSlots = new HashMap<>();
+    private String[] playerIds = new String[INITIAL_CAPACITY];
+    private double[] playerX = new double[INITIAL_CAPACITY];
+    private double[] playerY = new double[INITIAL_CAPACITY];
+    private double[] playerMass = new double[INITIAL_CAPACITY];
+    private double[] directionX = new double[INITIAL_CAPACITY];
+    private double[] directionY = new double[INITIAL_CAPACITY];
+    private Player[] playerCache = new Player[INITIAL_CAPACITY]; // null when the slot changed since the last snapshot
+    private boolean[] playerFlags = new boolean[INITIAL_CAPACITY];
+    private double[] grownMass = new double[INITIAL_CAPACITY];
+    private int playerCount;
+
+    private Food[] foods = new Food[INITIAL_CAPACITY];
+    private double[] foodX = new double[INITIAL_CAPACITY];
+    private double[] foodY = new double[INITIAL_CAPACITY];
+    private double[] foodMass = new double[INITIAL_CAPACITY];
+    private boolean[] eatenFoods = new boolean[INITIAL_CAPACITY];
+    private int foodCount;
+
+    private final SpatialGrid playerGrid;
+    private final SpatialGrid foodGrid;
+    private final IntConsumer foodVisitor = this::visitFood;
+    private final IntConsumer playerVisitor = this::visitPlayer;
+    private int eaterSlot;
+    private double eaterMass;
+    private double eatenMass;
+    private MapRegions zones; // Only the targets in the owned zones are eaten, all when null
+    private BitSet ownedZones;
+    private List<EatEvent> eats;
+
+    private World snapshot;
+
+    public SimulationKernel(final int width, final int height) {
+        this.width = width;
+        this.height = height;
+        this.playerGrid = new SpatialGrid(width, height, GRID_CELL_SIZE);
+        this.foodGrid = new SpatialGrid(width, height, GRID_CELL_SIZE);
+    }
+
+    public SimulationKernel(final World world) {
+        this(world.getWidth(), world.getHeight());
+        load(world);
+    }
+
+    /**
+     * Replaces players and foods with the ones of the given world, keeping the direction of the
+     * players that are still present.
+     */
+    public void load(final World world) {
+        Arrays.fill(playerFlags, 0, playerCount, false);
+        for (Player player : world.getPlayers()) {
+            final int slot = upsert(player);
+            playerFlags[slot] = true;
+        }
+        for (int slot = playerCount - 1; slot >= 0; slot--) {
+            if (!playerFlags[slot]) {
+                removePlayerSlot(slot);
+            }
+        }
+        loadFoods(world.getFoods());
+    }
+
+    public void loadFoods(final List<Food> newFoods) {
+        foodCount = 0;
+        addFoods(newFoods);
+    }
+
+    public void addFoods(final List<Food> newFoods) {
+        ensureFoodCapacity(foodCount + newFoods.size());
+        for (Food food : newFoods) {
+            foods[foodCount] = food;
+            foodX[foodCount] = food.getX();
+            foodY[foodCount] = food.getY();
+            foodMass[foodCount] = food.getMass();
+            foodCount++;
+        }
+        snapshot = null;
+    }
+
+    /**
+     * Adds the player or overwrites position and mass of the one with the same id.
+     */
+    public void upsertPlayer(final Player player) {
+        upsert(player);
+    }
+
+    public void removePlayer(final String playerId) {
+        final Integer slot = playerSlots.get(playerId);
+        if (slot != null) {
+            removePlayerSlot(slot);
+        }
+    }
+
+    public boolean hasPlayer(final String playerId) {
+        return playerSlots.containsKey(playerId);
+    }
+
+    public Optional<Player> findPlayer(final String playerId) {
+        final Integer slot = playerSlots.get(playerId);
+        if (slot == null) {
+            return Optional.empty();
+        }
+        if (playerCache[slot] == null) {
+            playerCache[slot] = new Player(playerIds[slot], playerX[slot], playerY[slot], playerMass[slot]);
+        }
+        return Optional.of(playerCache[slot]);
+    }
+
+    public void addMass(final String playerId, final double mass) {
+        final Integer slot = playerSlots.get(playerId);
+        if (slot != null) {
+            playerMass[slot] += mass;
+            playerCache[slot] = null;
+            snapshot = null;
+        }
+    }
+
+    public void setDirection(final String playerId, final double dx, final double dy) {
+        final Integer slot = playerSlots.get(playerId);
+        if (slot != null) {
+            directionX[slot] = dx;
+            directionY[slot] = dy;
+        }
+    }
+
+    public Optional<String> findPlayerWithMass(final double minMass) {
+        for (int slot = 0; slot < playerCount; slot++) {
+            if (playerMass[slot] >= minMass) {
+                return Optional.of(playerIds[slot]);
+            }
+        }
+        return Optional.empty();
+    }
+
+    public void move(final double speed) {
+        for (int slot = 0; slot < playerCount; slot++) {
+            if (directionX[slot] != 0 || directionY[slot] != 0) {
+                playerX[slot] += directionX[slot] * speed;
+                playerY[slot] += directionY[slot] * speed;
+                playerCache[slot] = null;
+                snapshot = null;
+            }
+        }
+    }
+
+    /**
+     * Every player eats the foods it collides with and then, grown by them, the smaller players it
+     * collides with. All checks are made against the state at the beginning of the call, eaten
+     * entities are removed at the end.
+     */
+    public void eat() {
+        resolveEats(null, null, null);
+        for (int slot = 0; slot < playerCount; slot++) {
+            if (grownMass[slot] != playerMass[slot]) {
+                playerMass[slot] = grownMass[slot];
+                playerCache[slot] = null;
+                snapshot = null;
+            }
+        }
+        removeEaten();
+    }
+
+    /**
+     * Eating as seen by the authority of some zones of the map: only the foods and players whose
+     * center is in one of the owned zones can be eaten, whatever the zone of the eater. Eaters do
+     * not grow here, each eat is reported as an event instead, so that the node owning the eater can
+     * credit the mass; eaten entities are removed.
+     */
+    public void eat(final MapRegions zones, final BitSet ownedZones, final List<EatEvent> eats) {
+        resolveEats(zones, ownedZones, eats);
+        removeEaten();
+    }
+
+    private void resolveEats(final MapRegions zones, final BitSet ownedZones, final List<EatEvent> eats) {
+        this.zones = zones;
+        this.ownedZones = ownedZones;
+        this.eats = eats;
+        foodGrid.clear();
+        for (int food = 0; food < foodCount; food++) {
+            foodGrid.insert(food, foodX[food], foodY[food], AbstractEntity.radiusOf(foodMass[food]));
+            eatenFoods[food] = false;
+        }
+        playerGrid.clear();
+        for (int slot = 0; slot < playerCount; slot++) {
+            playerGrid.insert(slot, playerX[slot], playerY[slot], AbstractEntity.radiusOf(playerMass[slot]));
+            playerFlags[slot] = false;
+        }
+
+        for (int slot = 0; slot < playerCount; slot++) {
+            eaterSlot = slot;
+            eaterMass = playerMass[slot];
+            eatenMass = 0;
+            foodGrid.forEachNear(playerX[slot], playerY[slot], AbstractEntity.radiusOf(eaterMass), foodVisitor);
+            eaterMass += eatenMass;
+            eatenMass = 0;
+            playerGrid.forEachNear(playerX[slot], playerY[slot], AbstractEntity.radiusOf(eaterMass), playerVisitor);
+            grownMass[slot] = eaterMass + eatenMass;
+        }
+        this.zones = null;
+        this.ownedZones = null;
+        this.eats = null;
+    }
+
+    private void removeEaten() {
+        for (int slot = playerCount - 1; slot >= 0; slot--) {
+            if (playerFlags[slot]) {
+                removePlayerSlot(slot);
+            }
+        }
+        for (int food = foodCount - 1; food >= 0; food--) {
+            if (eatenFoods[food]) {
+                removeFoodSlot(food);
+            }
+        }
+    }
+
+    public World snapshot() {
+        if (snapshot == null) {
+            final Player[] players = new Player[playerCount];
+            for (int slot = 0; slot < playerCount; slot++) {
+                if (playerCache[slot] == null) {
+                    playerCache[slot] = new Player(playerIds[slot], playerX[slot], playerY[slot], playerMass[slot]);
+                }
+                players[slot] = playerCache[slot];
+            }
+            snapshot = new World(width, height, List.of(players), List.of(Arrays.copyOf(foods, foodCount)));
+        }
+        return snapshot;
+    }
+
+    private boolean owns(final double x, final double y) {
+        return zones == null || ownedZones.get(zones.regionOf(x, y));
+    }
+
+    private void visitFood(final int food) {
+        if (owns(foodX[food], foodY[food]) && EatingManager.canEatFood(playerX[eaterSlot], playerY[eaterSlot], playerMass[eaterSlot],
+                foodX[food], foodY[food], foodMass[food])) {
+            eatenMass += foodMass[food];
+            eatenFoods[food] = true;
+            if (eats != null) {
+                eats.add(new EatEvent(playerIds[eaterSlot], EatEvent.Kind.FOOD, foods[food].getId(), foodMass[food]));
+            }
+        }
+    }
+
+    private void visitPlayer(final int other) {
+        if (other != eaterSlot && owns(playerX[other], playerY[other]) && EatingManager.canEatPlayer(playerX[eaterSlot], playerY[eaterSlot], eaterMass,
+                playerX[other], playerY[other], playerMass[other])) {
+            eatenMass += playerMass[other];
+            playerFlags[other] = true;
+            if (eats != null) {
+                eats.add(new EatEvent(playerIds[eaterSlot], EatEvent.Kind.PLAYER, playerIds[other], playerMass[other]));
+            }
+        }
+    }
+
+    private int upsert(final Player player) {
+        Integer slot = playerSlots.get(player.getId());
+        if (slot == null) {
+            ensurePlayerCapacity(playerCount + 1);
+            slot = playerCount++;
+            playerSlots.put(player.getId(), slot);
+            playerIds[slot] = player.getId();
+            directionX[slot] = 0;
+            directionY[slot] = 0;
+        }
+        playerX[slot] = player.getX();
+        playerY[slot] = player.getY();
+        playerMass[slot] = player.getMass();
+        playerCache[slot] = player;
+        snapshot = null;
+        return slot;
+    }
+
+    private void removePlayerSlot(final int slot) {
+        final int last = --playerCount;
+        playerSlots.remove(playerIds[slot]);
+        if (slot != last) {
+            playerIds[slot] = playerIds[last];
+            playerX[slot] = playerX[last];
+            playerY[slot] = playerY[last];
+            playerMass[slot] = playerMass[last];
+            directionX[slot] = directionX[last];
+            directionY[slot] = directionY[last];
+            playerCache[slot] = playerCache[last];
+            playerFlags[slot] = playerFlags[last];
+            playerSlots.put(playerIds[slot], slot);
+        }
+        playerIds[last] = null;
+        playerCache[last] = null;
+        snapshot = null;
+    }
+
+    private void removeFoodSlot(final int food) {
+        final int last = --foodCount;
+        if (food != last) {
+            foods[food] = foods[last];
+            foodX[food] = foodX[last];
+            foodY[food] = foodY[last];
+            foodMass[food] = foodMass[last];
+            eatenFoods[food] = eatenFoods[last];
+        }
+        foods[last] = null;
+        snapshot = null;
+    }
+
+    private void ensurePlayerCapacity(final int capacity) {
+        if (capacity > playerIds.length) {
+            final int size = Math.max(capacity, playerIds.length * 2);
+            playerIds = Arrays.copyOf(playerIds, size);
+            playerX = Arrays.copyOf(playerX, size);
+            playerY = Arrays.copyOf(playerY, size);
+            playerMass = Arrays.copyOf(playerMass, size);
+            directionX = Arrays.copyOf(directionX, size);
+            directionY = Arrays.copyOf(directionY, size);
+            playerCache = Arrays.copyOf(playerCache, size);
+            playerFlags = Arrays.copyOf(playerFlags, size);
+            grownMass = Arrays.copyOf(grownMass, size);
+        }
+    }
+
+    private void ensureFoodCapacity(final int capacity) {
+        if (capacity > foods.length) {
+            final int size = Math.max(capacity, foods.length * 2);
+            foods = Arrays.copyOf(foods, size);
+            foodX = Arrays.copyOf(foodX, size);
+            foodY = Arrays.copyOf(foodY, size);
+            foodMass = Arrays.copyOf(foodMass, size);
+            eatenFoods = Arrays.copyOf(eatenFoods, size);
+        }
+    }
+}
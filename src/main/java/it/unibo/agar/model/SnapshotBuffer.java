@@ -0,0 +1,124 @@
+package it.unibo.agar.model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Recent world snapshots with the time they were received, for rendering the remote entities
+ * slightly in the past: positions are interpolated between the two snapshots around the render
+ * time, so movement looks smooth even if updates come at a lower rate than the frames. When the
+ * next snapshot is late, players keep moving with their last velocity for a short while.
+ * Sample times are rounded down to a step and the last sample is reused while it would not change,
+ * so that a renderer can skip a frame when it gets the same world as the previous one.
+ * Written by the tick thread and sampled by the render thread.
+ */
+public class SnapshotBuffer {
+    private final int capacity;
+    private final long maxExtrapolationMs;
+    private final long sampleStepMs;
+    private final long[] times;
+    private final World[] worlds;
+    private int newest = -1;
+    private int size;
+    private World lastFrom; // Snapshots and position of the last sample, which is reused for the same ones
+    private World lastTo;
+    private double lastT;
+    private World lastSample;
+
+    public SnapshotBuffer(final int capacity, final long maxExtrapolationMs, final long sampleStepMs) {
+        this.capacity = capacity;
+        this.maxExtrapolationMs = maxExtrapolationMs;
+        this.sampleStepMs = sampleStepMs;
+        this.times = new long[capacity];
+        this.worlds = new World[capacity];
+    }
+
+    public synchronized void add(final long timeMs, final World world) {
+        if (size > 0 && timeMs <= times[newest]) {
+            worlds[newest] = world; // Same millisecond, the latest wins
+            return;
+        }
+        newest = (newest + 1) % capacity;
+        times[newest] = timeMs;
+        worlds[newest] = world;
+        size = Math.min(size + 1, capacity);
+    }
+
+    public synchronized void clear() {
+        size = 0;
+        newest = -1;
+    }
+
+    /**
+     * The world as it was at the given time, or null if the buffer is empty. Foods and masses are
+     * the ones of the first snapshot after that time, only positions are blended.
+     */
+    public World sample(final long time) {
+        final long timeMs = time - Math.floorMod(time, sampleStepMs);
+        final World from;
+        final World to;
+        final double t;
+        synchronized (this) {
+            if (size == 0) {
+                return null;
+            }
+            if (size == 1) {
+                return worlds[newest];
+            }
+            if (times[newest] <= timeMs) {
+                // The next snapshot is late, extrapolate from the last two
+                final int last = previous(newest);
+                from = worlds[last];
+                to = worlds[newest];
+                t = 1 + (double) Math.min(timeMs - times[newest], maxExtrapolationMs) / (times[newest] - times[last]);
+            } else {
+                int next = newest;
+                for (int older = 1; times[previous(next)] > timeMs; older++) {
+                    if (older == size - 1) {
+                        return worlds[previous(next)]; // Older than every snapshot kept
+                    }
+                    next = previous(next);
+                }
+                final int last = previous(next);
+                from = worlds[last];
+                to = worlds[next];
+                t = (double) (timeMs - times[last]) / (times[next] - times[last]);
+            }
+            if (from == lastFrom && to == lastTo && t == lastT) {
+                return lastSample;
+            }
+        }
+        final World sample = blend(from, to, t);
+        synchronized (this) {
+            lastFrom = from;
+            lastTo = to;
+            lastT = t;
+            lastSample = sample;
+        }
+        return sample;
+    }
+
+    private int previous(final int index) {
+        return (index - 1 + capacity) % capacity;
+    }
+
+    private static World blend(final World from, final World to, final double t) {
+        final Map<String, Player> fromPlayers = new HashMap<>();
+        from.getPlayers().forEach(p -> fromPlayers.put(p.getId(), p));
+        final List<Player> players = new ArrayList<>(to.getPlayers().size());
+        boolean moved = false;
+        for (Player player : to.getPlayers()) {
+            final Player start = fromPlayers.get(player.getId());
+            if (start == null || (start.getX() == player.getX() && start.getY() == player.getY())) {
+                players.add(player);
+            } else {
+                players.add(player.moveTo(start.getX() + (player.getX() - start.getX()) * t,
+                        start.getY() + (player.getY() - start.getY()) * t));
+                moved = true;
+            }
+        }
+        return moved ? new World(to.getWidth(), to.getHeight(), players, to.getFoods()) : to;
+    }
+}
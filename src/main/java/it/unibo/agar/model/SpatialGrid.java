@@ -0,0 +1,82 @@
+package it.unibo.agar.model;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Uniform grid over the map that buckets entity indices by cell, so that proximity queries
+ * only visit the cells around the queried area instead of every entity of the world.
+ * Entities outside the map are clamped into the border cells.
+ */
+public final class SpatialGrid {
+    private static final int EMPTY = -1;
+
+    private final double cellSize;
+    private final int columns;
+    private final int rows;
+    private final int[] cellHeads;
+    private int[] next;
+    private double maxRadius;
+
+    public SpatialGrid(final int width, final int height, final double cellSize) {
+        this.cellSize = cellSize;
+        this.columns = Math.max(1, (int) Math.ceil(width / cellSize));
+        this.rows = Math.max(1, (int) Math.ceil(height / cellSize));
+        this.cellHeads = new int[columns * rows];
+        this.next = new int[16];
+        clear();
+    }
+
+    public void clear() {
+        Arrays.fill(cellHeads, EMPTY);
+        maxRadius = 0;
+    }
+
+    public void insert(final int index, final double x, final double y, final double radius) {
+        if (index >= next.length) {
+            next = Arrays.copyOf(next, Math.max(index + 1, next.length * 2));
+        }
+        final int cell = row(y) * columns + column(x);
+        next[index] = cellHeads[cell];
+        cellHeads[cell] = index;
+        maxRadius = Math.max(maxRadius, radius);
+    }
+
+    /**
+     * Visits every entity whose circle may overlap the circle of the given centre and radius.
+     * Candidates still need an exact check.
+     */
+    public void forEachNear(final double x, final double y, final double radius, final IntConsumer action) {
+        forEachInRect(x - radius, y - radius, x + radius, y + radius, action);
+    }
+
+    /**
+     * Visits every entity whose circle may intersect the given rectangle.
+     */
+    public void forEachInRect(final double minX, final double minY, final double maxX, final double maxY,
+                              final IntConsumer action) {
+        final int fromColumn = column(minX - maxRadius);
+        final int toColumn = column(maxX + maxRadius);
+        final int fromRow = row(minY - maxRadius);
+        final int toRow = row(maxY + maxRadius);
+        for (int r = fromRow; r <= toRow; r++) {
+            for (int c = fromColumn; c <= toColumn; c++) {
+                for (int i = cellHeads[r * columns + c]; i != EMPTY; i = next[i]) {
+                    action.accept(i);
+                }
+            }
+        }
+    }
+
+    private int column(final double x) {
+        return clamp((int) Math.floor(x / cellSize), columns);
+    }
+
+    private int row(final double y) {
+        return clamp((int) Math.floor(y / cellSize), rows);
+    }
+
+    private static int clamp(final int value, final int size) {
+        return Math.min(Math.max(value, 0), size - 1);
+    }
+}
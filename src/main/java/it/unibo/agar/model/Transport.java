@@ -0,0 +1,42 @@
+package it.unibo.agar.model;
+
+import java.io.IOException;
+
+/**
+ * Publish/subscribe messaging between the nodes of a game. Every message published on a channel
+ * is delivered to every subscriber of that channel, the publisher included; on a
+ * {@linkplain TransportChannel#isRouted() routed} channel only to the subscribers bound to its key.
+ */
+public interface Transport {
+
+    default void publish(TransportChannel channel, byte[] message) throws IOException {
+        publish(channel, "", message);
+    }
+
+    /**
+     * Publishes a message with a routing key, which only matters on routed channels.
+     */
+    void publish(TransportChannel channel, String routingKey, byte[] message) throws IOException;
+
+    /**
+     * Registers the handler of the messages of a channel. Messages of the same channel are handled
+     * one at a time, in publishing order.
+     */
+    void subscribe(TransportChannel channel, MessageHandler handler) throws IOException;
+
+    /**
+     * Starts receiving the messages of a routed channel whose routing key matches the binding key.
+     * Keys are dot-separated words; in a binding key {@code *} matches exactly one word and
+     * {@code #} zero or more words.
+     */
+    void bind(TransportChannel channel, String bindingKey) throws IOException;
+
+    void unbind(TransportChannel channel, String bindingKey) throws IOException;
+
+    void close() throws IOException;
+
+    @FunctionalInterface
+    interface MessageHandler {
+        void onMessage(byte[] message) throws IOException;
+    }
+}
@@ -0,0 +1,25 @@
+package it.unibo.agar.model;
+
+public enum TransportChannel {
+    PLAYER(false),
+    WORLD(true),
+    ELECTION(false),
+    VICTORY(false),
+    INPUT(false),
+    ROSTER(false),
+    EAT(false);
+
+    private final boolean routed;
+
+    TransportChannel(final boolean routed) {
+        this.routed = routed;
+    }
+
+    /**
+     * Whether messages are routed by key: a subscriber receives only the messages whose routing
+     * key matches one of the keys it is bound to, instead of every message of the channel.
+     */
+    public boolean isRouted() {
+        return routed;
+    }
+}
@@ -0,0 +1,32 @@
+package it.unibo.agar.model;
+
+/**
+ * Delivery guarantees used for the messages of an exchange.
+ *
+ * @param persistent whether messages are published as persistent
+ * @param autoAck    whether the broker considers messages acknowledged as soon as they are delivered
+ * @param prefetch   how many unacknowledged messages the broker pushes to the consumer
+ * @param confirms   whether publishes are confirmed by the broker, asynchronously, and published
+ *                   again if it rejects them
+ * @param maxBacklog how many messages the queue of a consumer holds before the broker drops the
+ *                   oldest ones, unbounded if zero
+ */
+public record TransportProfile(boolean persistent, boolean autoAck, int prefetch, boolean confirms, int maxBacklog) {
+
+    /**
+     * High rate state that is stale a tick later: losing a message only delays the next one.
+     */
+    public static final TransportProfile STREAM = new TransportProfile(false, true, 256, false, 0);
+
+    /**
+     * Snapshots of which only the latest matters: a slow consumer gets the newest ones instead of
+     * working through a stale backlog. Acknowledged one by one with a small prefetch, so that the
+     * backlog stays on the broker, which drops its oldest messages.
+     */
+    public static final TransportProfile CONFLATED = new TransportProfile(false, false, 8, false, 32);
+
+    /**
+     * Rare control messages that must not be lost.
+     */
+    public static final TransportProfile RELIABLE = new TransportProfile(true, false, 1, true, 0);
+}
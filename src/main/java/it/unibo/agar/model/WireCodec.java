@@ -0,0 +1,43 @@
+package it.unibo.agar.model;
+
+import java.io.IOException;
+
+/**
+ * Wire format of the messages exchanged between nodes. Every node of a game must use the same codec.
+ */
+public interface WireCodec {
+    byte[] encodePlayer(Player player) throws IOException;
+
+    Player decodePlayer(byte[] bytes) throws IOException;
+
+    byte[] encodeWorld(World world) throws IOException;
+
+    World decodeWorld(byte[] bytes) throws IOException;
+
+    byte[] encodeWorldMessage(WorldMessage message) throws IOException;
+
+    WorldMessage decodeWorldMessage(byte[] bytes) throws IOException;
+
+    /**
+     * Decodes only the header of a world message; codecs that can stop early should.
+     */
+    default WorldMessage.Header decodeWorldMessageHeader(byte[] bytes) throws IOException {
+        return decodeWorldMessage(bytes).header();
+    }
+
+    byte[] encodeElectionMessage(ElectionMessage message) throws IOException;
+
+    ElectionMessage decodeElectionMessage(byte[] bytes) throws IOException;
+
+    byte[] encodeInputMessage(InputMessage message) throws IOException;
+
+    InputMessage decodeInputMessage(byte[] bytes) throws IOException;
+
+    byte[] encodeRosterMessage(RosterMessage message) throws IOException;
+
+    RosterMessage decodeRosterMessage(byte[] bytes) throws IOException;
+
+    byte[] encodeEatMessage(EatMessage message) throws IOException;
+
+    EatMessage decodeEatMessage(byte[] bytes) throws IOException;
+}
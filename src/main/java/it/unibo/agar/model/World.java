@@ -3,15 +3,23 @@ package it.unibo.agar.model;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 public class World {
+    private static final double GRID_CELL_SIZE = 50;
+
     private final int width;
     private final int height;
     private final List<Player> players;
     private final List<Food> foods;
+    private volatile SpatialGrid playerGrid; // Built lazily, the world is immutable
+    private volatile SpatialGrid foodGrid;
 
     @JsonCreator
     public World(
@@ -54,8 +62,65 @@ public class World {
     }
 
 
+    /**
+     * Visits the players whose bounding box intersects the given rectangle.
+     */
+    public void forEachPlayerIn(final double minX, final double minY, final double maxX, final double maxY,
+                                final Consumer<? super Player> action) {
+        forEachIn(players, playerGrid(), minX, minY, maxX, maxY, action);
+    }
+
+    /**
+     * Visits the foods whose bounding box intersects the given rectangle.
+     */
+    public void forEachFoodIn(final double minX, final double minY, final double maxX, final double maxY,
+                              final Consumer<? super Food> action) {
+        forEachIn(foods, foodGrid(), minX, minY, maxX, maxY, action);
+    }
+
+    private static <T extends Entity> void forEachIn(final List<T> entities, final SpatialGrid grid,
+                                                     final double minX, final double minY,
+                                                     final double maxX, final double maxY,
+                                                     final Consumer<? super T> action) {
+        grid.forEachInRect(minX, minY, maxX, maxY, i -> {
+            final T entity = entities.get(i);
+            final double r = entity.getRadius();
+            if (entity.getX() + r >= minX && entity.getX() - r <= maxX
+                    && entity.getY() + r >= minY && entity.getY() - r <= maxY) {
+                action.accept(entity);
+            }
+        });
+    }
+
+    private SpatialGrid playerGrid() {
+        SpatialGrid grid = playerGrid;
+        if (grid == null) {
+            grid = buildGrid(players);
+            playerGrid = grid;
+        }
+        return grid;
+    }
+
+    private SpatialGrid foodGrid() {
+        SpatialGrid grid = foodGrid;
+        if (grid == null) {
+            grid = buildGrid(foods);
+            foodGrid = grid;
+        }
+        return grid;
+    }
+
+    private SpatialGrid buildGrid(final List<? extends Entity> entities) {
+        final SpatialGrid grid = new SpatialGrid(width, height, GRID_CELL_SIZE);
+        for (int i = 0; i < entities.size(); i++) {
+            final Entity entity = entities.get(i);
+            grid.insert(i, entity.getX(), entity.getY(), entity.getRadius());
+        }
+        return grid;
+    }
+
     public World removePlayers(final List<Player> playersToRemove) {
-        List<String> idsToRemove = playersToRemove.stream().map(Player::getId).toList();
+        Set<String> idsToRemove = playersToRemove.stream().map(Player::getId).collect(Collectors.toSet());
         List<Player> newPlayers = players.stream()
                 .filter(p -> !idsToRemove.contains(p.getId()))
                 .collect(Collectors.toList());
@@ -63,8 +128,10 @@ public class World {
     }
 
     public World removeFoods(List<Food> foodsToRemove) {
+        Set<Food> toRemove = Collections.newSetFromMap(new IdentityHashMap<>());
+        toRemove.addAll(foodsToRemove);
         List<Food> newFoods = foods.stream()
-                .filter(f -> !foodsToRemove.contains(f)) // Assumes Food has proper equals/hashCode or relies on object identity if not overridden
+                .filter(f -> !toRemove.contains(f)) // Food relies on object identity
                 .collect(Collectors.toList());
         return new World(width, height, players, newFoods);
     }
@@ -0,0 +1,171 @@
+package it.unibo.agar.model;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
+
+/**
+ * Publishes the world updates of the owned zones on its own thread, at a broadcast rate independent
+ * of the simulation rate. The tick only offers its latest state and a state not published yet is
+ * replaced by the newer one, so a slow broker delays the next update instead of queueing stale
+ * ones. Eats are events and are not published here, see {@link EatMessage}.
+ * The updates are the heartbeat of the authority of the zone, so they are only published when the
+ * tick offered a new state since the last broadcast: if the tick hangs or dies the zone goes silent
+ * and its standby takes over, even though this thread is still running.
+ * Regions send their keyframes at different broadcasts so that they do not all come in the same
+ * burst. A node that joins gets the last published regions as keyframes of their own, sent to it
+ * alone, so it does not wait for the next keyframe of every region.
+ */
+class WorldBroadcaster {
+    private static final Logger LOGGER = LoggerFactory.getLogger(WorldBroadcaster.class);
+    private static final String SNAPSHOT_KEY_PREFIX = "join.";
+
+    private final Transport transport;
+    private final GameMetrics metrics;
+    private final Serializer serializer;
+    private final Serializer snapshotSerializer = new Serializer(); // Full names, the newcomer may not know the ids yet
+    private final MapRegions mapRegions;
+    private final FoodField foodField;
+    private final int[] regionZones;
+    private final int keyframeInterval;
+    private final AtomicReference<Update> pending = new AtomicReference<>();
+    private final World[] lastPublishedRegions; // Owned by the broadcaster thread
+    private final long[] lastPublishedFoodEpochs; // Owned by the broadcaster thread
+    private long publishedSequence = 0;
+    private final ScheduledExecutorService executor;
+    private final boolean ownsExecutor;
+    private final ScheduledFuture<?> broadcasts;
+    private final LongSupplier clock; // Timestamps of the world messages
+
+    /**
+     * The state to publish: the world, the spawn epochs of its regions and the zones owned when it
+     * was simulated.
+     */
+    record Update(World world, long[] foodEpochs, BitSet ownedZones) { }
+
+    WorldBroadcaster(final String nodeId, final Transport transport, final Serializer serializer,
+                     final GameMetrics metrics, final MapRegions mapRegions, final FoodField foodField,
+                     final int[] regionZones, final int keyframeInterval,
+                     final long intervalMs, final ScheduledExecutorService executor, final LongSupplier clock) {
+        this.transport = transport;
+        this.clock = clock;
+        this.metrics = metrics;
+        this.serializer = serializer;
+        this.mapRegions = mapRegions;
+        this.foodField = foodField;
+        this.regionZones = regionZones;
+        this.keyframeInterval = keyframeInterval;
+        this.lastPublishedRegions = new World[mapRegions.count()];
+        this.lastPublishedFoodEpochs = new long[mapRegions.count()];
+        this.ownsExecutor = executor == null; // A shared one runs a task at a time too
+        this.executor = executor != null ? executor : Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "world-broadcaster-" + nodeId);
+            t.setDaemon(true);
+            return t;
+        });
+        this.broadcasts = this.executor.scheduleAtFixedRate(this::broadcast, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Offers the latest state, replacing the one still waiting to be published.
+     */
+    void offer(final Update update) {
+        this.pending.set(update);
+    }
+
+    /**
+     * Stops broadcasting, shutting down the executor unless it is shared.
+     */
+    void close() {
+        this.broadcasts.cancel(false);
+        if (this.ownsExecutor) {
+            this.executor.shutdown();
+        }
+    }
+
+    /**
+     * Sends the last published state of the owned regions to a node that just joined, as keyframes
+     * with the sequence of the last update, so that it applies the next deltas right away.
+     */
+    void sendSnapshot(final int playerId) {
+        this.executor.execute(() -> {
+            try {
+                publishSnapshot(playerId);
+            } catch (IOException | RuntimeException e) {
+                LOGGER.error("Error while sending the snapshot to player {}", playerId, e);
+            }
+        });
+    }
+
+    /**
+     * The routing key of the snapshots sent to a player, on the world channel. Keyed on the roster
+     * id, as a name could hold the separators and wildcards of the routing keys.
+     */
+    static String snapshotKey(final int playerId) {
+        return SNAPSHOT_KEY_PREFIX + playerId;
+    }
+
+    private void broadcast() {
+        final Update update = this.pending.getAndSet(null);
+        if (update == null) {
+            return; // No tick since the last broadcast, no heartbeat either
+        }
+        if (update.ownedZones().isEmpty()) {
+            Arrays.fill(this.lastPublishedRegions, null);
+            return;
+        }
+        try {
+            publish(update);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("Error while publishing the world", e);
+        }
+    }
+
+    private void publish(final Update update) throws IOException {
+        final long sequence = ++this.publishedSequence;
+        final long timestamp = this.clock.getAsLong();
+        final World[] regions = this.mapRegions.split(update.world());
+        for (int region = 0; region < regions.length; region++) {
+            if (!update.ownedZones().get(this.regionZones[region])) {
+                this.lastPublishedRegions[region] = null;
+                continue;
+            }
+            final long foodEpoch = update.foodEpochs()[region];
+            final WorldMessage message;
+            if (this.lastPublishedRegions[region] == null || (sequence + region) % this.keyframeInterval == 0) {
+                message = WorldMessage.keyframe(region, sequence, timestamp, regions[region], foodEpoch);
+            } else {
+                message = WorldMessage.delta(region, sequence, timestamp, this.lastPublishedRegions[region],
+                        this.lastPublishedFoodEpochs[region], regions[region], foodEpoch, this.foodField);
+            }
+            final long serializeStart = System.nanoTime();
+            final byte[] bytes = this.serializer.serializeWorldMessage(message);
+            this.metrics.recordSince(GameMetrics.Metric.SERIALIZE, serializeStart);
+            this.transport.publish(TransportChannel.WORLD, MapRegions.routingKey(region), bytes);
+            this.lastPublishedRegions[region] = regions[region];
+            this.lastPublishedFoodEpochs[region] = foodEpoch;
+        }
+    }
+
+    private void publishSnapshot(final int playerId) throws IOException {
+        final long timestamp = this.clock.getAsLong();
+        for (int region = 0; region < this.lastPublishedRegions.length; region++) {
+            if (this.lastPublishedRegions[region] == null) {
+                continue; // Not owned at the last update
+            }
+            final WorldMessage message = WorldMessage.keyframe(region, this.publishedSequence, timestamp,
+                    this.lastPublishedRegions[region], this.lastPublishedFoodEpochs[region]);
+            this.transport.publish(TransportChannel.WORLD, snapshotKey(playerId),
+                    this.snapshotSerializer.serializeWorldMessage(message));
+        }
+    }
+}
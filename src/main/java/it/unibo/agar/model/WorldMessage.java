@@ -0,0 +1,144 @@
+package it.unibo.agar.model;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * World update broadcast by the authority of a zone for one {@linkplain MapRegions map region}.
+ * A keyframe carries all the entities of the region, a delta only what changed since the previous
+ * message of the region: moved or new players, removed players and eaten foods.
+ * Foods travel as ids, materialized by the receiver with the shared {@link FoodField}: a keyframe
+ * lists the foods left, and both carry the spawn epoch of the region, so that a delta implies the
+ * foods spawned since the previous message. The eats resolved in the region are not part of the
+ * update, they travel as {@link EatMessage}s on a channel that does not drop them.
+ */
+public record WorldMessage(Type type, int region, long sequence, long timestamp, int width, int height,
+                           List<Player> players, List<String> removedPlayers, long foodEpoch,
+                           List<Long> foods, List<Long> eatenFoods) {
+
+    public enum Type { KEYFRAME, DELTA }
+
+    /**
+     * What a consumer needs of a message to tell whether it is stale: where it belongs.
+     */
+    public record Header(Type type, int region, long sequence) {
+        public boolean isKeyframe() {
+            return type == Type.KEYFRAME;
+        }
+    }
+
+    @JsonCreator
+    public WorldMessage(
+            @JsonProperty("type") Type type,
+            @JsonProperty("region") int region,
+            @JsonProperty("sequence") long sequence,
+            @JsonProperty("timestamp") long timestamp,
+            @JsonProperty("width") int width,
+            @JsonProperty("height") int height,
+            @JsonProperty("players") List<Player> players,
+            @JsonProperty("removedPlayers") List<String> removedPlayers,
+            @JsonProperty("foodEpoch") long foodEpoch,
+            @JsonProperty("foods") List<Long> foods,
+            @JsonProperty("eatenFoods") List<Long> eatenFoods) {
+        this.type = type;
+        this.region = region;
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+        this.width = width;
+        this.height = height;
+        this.players = List.copyOf(players);
+        this.removedPlayers = List.copyOf(removedPlayers);
+        this.foodEpoch = foodEpoch;
+        this.foods = List.copyOf(foods);
+        this.eatenFoods = List.copyOf(eatenFoods);
+    }
+
+    /**
+     * @param timestamp milliseconds on the clock of the sender
+     * @param foodEpoch the epochs of the region spawned so far
+     */
+    public static WorldMessage keyframe(final int region, final long sequence, final long timestamp,
+                                        final World world, final long foodEpoch) {
+        return new WorldMessage(Type.KEYFRAME, region, sequence, timestamp, world.getWidth(),
+                world.getHeight(), world.getPlayers(), List.of(), foodEpoch,
+                world.getFoods().stream().map(FoodField::idOf).toList(), List.of());
+    }
+
+    public static WorldMessage delta(final int region, final long sequence, final long timestamp,
+                                     final World previous, final long previousFoodEpoch, final World current, final long foodEpoch,
+                                     final FoodField foodField) {
+        final Map<String, Player> previousPlayers = previous.getPlayers().stream()
+                .collect(Collectors.toMap(Player::getId, Function.identity(), (p1, p2) -> p2));
+        final List<Player> changedPlayers = current.getPlayers().stream()
+                .filter(p -> hasChanged(previousPlayers.get(p.getId()), p))
+                .toList();
+        final Set<String> currentPlayers = ids(current.getPlayers());
+        final List<String> removedPlayers = previousPlayers.keySet().stream()
+                .filter(id -> !currentPlayers.contains(id))
+                .toList();
+
+        // Spawned foods already eaten are listed too, the receiver materializes the whole epochs
+        final Set<Long> currentFoods = current.getFoods().stream().map(FoodField::idOf).collect(Collectors.toSet());
+        final List<Long> eatenFoods = new ArrayList<>();
+        previous.getFoods().stream().map(FoodField::idOf).filter(id -> !currentFoods.contains(id))
+                .forEach(eatenFoods::add);
+        foodField.ids(region, previousFoodEpoch, foodEpoch).stream().filter(id -> !currentFoods.contains(id))
+                .forEach(eatenFoods::add);
+
+        return new WorldMessage(Type.DELTA, region, sequence, timestamp, current.getWidth(),
+                current.getHeight(), changedPlayers, removedPlayers, foodEpoch, List.of(), eatenFoods);
+    }
+
+    @JsonIgnore
+    public boolean isKeyframe() {
+        return type == Type.KEYFRAME;
+    }
+
+    @JsonIgnore
+    public Header header() {
+        return new Header(type, region, sequence);
+    }
+
+    /**
+     * Rebuilds the world described by this message. A keyframe ignores the base world.
+     *
+     * @param baseFoodEpoch the epochs of the region spawned in the base world
+     */
+    public World applyTo(final World base, final long baseFoodEpoch, final FoodField foodField) {
+        if (isKeyframe()) {
+            return new World(width, height, players, foods.stream().map(foodField::food).toList());
+        }
+        final Map<String, Player> newPlayers = new LinkedHashMap<>();
+        base.getPlayers().forEach(p -> newPlayers.put(p.getId(), p));
+        removedPlayers.forEach(newPlayers::remove);
+        players.forEach(p -> newPlayers.put(p.getId(), p));
+
+        final Set<Long> eaten = new HashSet<>(eatenFoods);
+        final List<Food> newFoods = new ArrayList<>(base.getFoods().size());
+        base.getFoods().stream().filter(f -> !eaten.contains(FoodField.idOf(f))).forEach(newFoods::add);
+        foodField.ids(region, baseFoodEpoch, foodEpoch).stream().filter(id -> !eaten.contains(id))
+                .map(foodField::food).forEach(newFoods::add);
+        return new World(width, height, new ArrayList<>(newPlayers.values()), newFoods);
+    }
+
+    private static boolean hasChanged(final Player before, final Player after) {
+        return before == null
+                || before.getX() != after.getX()
+                || before.getY() != after.getY()
+                || before.getMass() != after.getMass();
+    }
+
+    private static Set<String> ids(final List<? extends Entity> entities) {
+        return entities.stream().map(Entity::getId).collect(Collectors.toSet());
+    }
+}
@@ -0,0 +1,204 @@
+package it.unibo.agar.tools;
+
+import it.unibo.agar.model.AIMovement;
+import it.unibo.agar.model.DistributedGameStateManager;
+import it.unibo.agar.model.GameMetrics;
+import it.unibo.agar.model.LoopbackNetwork;
+import it.unibo.agar.model.MapRegions;
+import it.unibo.agar.model.RabbitMQConnector;
+import it.unibo.agar.model.Serializer;
+import it.unibo.agar.model.Transport;
+import it.unibo.agar.model.TransportChannel;
+import it.unibo.agar.model.WorldMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Headless load generator: every bot is a full node driven by {@link AIMovement} on its own
+ * virtual thread, over the loopback network or a real broker. The bots share one set of metrics and
+ * a scheduler per core for their elections and broadcasts, instead of threads of their own.
+ * Usage: {@code BotSwarm [bots] [loopback|brokerHost] [durationSeconds] [botsSpawnedPerSecond]}.
+ * Every second it logs the tick time of the leader, the latency of the world messages as seen by
+ * an observer of the whole map (leader and observer clocks must be in sync on a real broker) and
+ * the message rates.
+ */
+public class BotSwarm {
+    private static final Logger LOGGER = LoggerFactory.getLogger(BotSwarm.class);
+    private static final long GAME_TICK_MS = 20;
+
+    private final Stats leaderTick = new Stats();
+    private final Stats followerTick = new Stats();
+    private final Stats worldLatency = new Stats();
+    private final LongAdder playerMessages = new LongAdder();
+    private final LongAdder worldMessages = new LongAdder();
+    private final LongAdder worldBytes = new LongAdder();
+    private final AtomicLong leaderPlayers = new AtomicLong();
+    private final List<DistributedGameStateManager> bots = new CopyOnWriteArrayList<>();
+    private final Serializer serializer = new Serializer();
+    private final GameMetrics metrics = new GameMetrics("bot-swarm");
+    private final ScheduledExecutorService[] schedulers =
+            new ScheduledExecutorService[Runtime.getRuntime().availableProcessors()];
+    private volatile boolean running = true;
+
+    public static void main(String[] args) throws Exception {
+        final int botCount = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        final String target = args.length > 1 ? args[1] : "loopback";
+        final long durationSeconds = args.length > 2 ? Long.parseLong(args[2]) : 60;
+        final int spawnRate = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+        new BotSwarm().run(botCount, target, durationSeconds, spawnRate);
+        System.exit(0);
+    }
+
+    private void run(int botCount, String target, long durationSeconds, int spawnRate) throws Exception {
+        final LoopbackNetwork network = "loopback".equals(target) ? new LoopbackNetwork(1, 2, 0) : null;
+        for (int i = 0; i < schedulers.length; i++) {
+            final String threadName = "bot-scheduler-" + i;
+            schedulers[i] = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, threadName);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        metrics.start();
+        final Transport observer = connect(network, target);
+        observer.subscribe(TransportChannel.PLAYER, message -> playerMessages.increment());
+        observer.bind(TransportChannel.WORLD, MapRegions.WHOLE_MAP_KEY);
+        observer.subscribe(TransportChannel.WORLD, this::observeWorldMessage);
+
+        final ExecutorService threads = Executors.newVirtualThreadPerTaskExecutor();
+        final long end = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(durationSeconds);
+        threads.execute(() -> report(end));
+
+        for (int i = 0; i < botCount && System.currentTimeMillis() < end; i++) {
+            final String name = String.format("bot-%05d", i);
+            final Transport transport = connect(network, target);
+            final ScheduledExecutorService scheduler = schedulers[i % schedulers.length];
+            threads.execute(() -> runBot(name, transport, scheduler));
+            Thread.sleep(1000 / Math.max(1, spawnRate));
+        }
+        Thread.sleep(Math.max(0, end - System.currentTimeMillis()));
+        running = false;
+        threads.shutdown();
+        threads.awaitTermination(5, TimeUnit.SECONDS);
+        observer.close();
+        for (ScheduledExecutorService scheduler : schedulers) {
+            scheduler.shutdownNow();
+        }
+        metrics.close();
+        if (network != null) {
+            network.shutdown();
+        }
+    }
+
+    private static Transport connect(LoopbackNetwork network, String host) throws IOException, TimeoutException {
+        if (network != null) {
+            return network.connect();
+        }
+        final RabbitMQConnector connector = new RabbitMQConnector();
+        connector.connect(host);
+        return connector;
+    }
+
+    private void runBot(String name, Transport transport, ScheduledExecutorService scheduler) {
+        DistributedGameStateManager bot = null;
+        try {
+            bot = new DistributedGameStateManager(transport, name, false, scheduler, metrics);
+            bot.setVictoryListener(winner -> LOGGER.info("{} won the game", winner));
+            bots.add(bot);
+            long nextTick = System.nanoTime();
+            while (running) {
+                final long start = System.nanoTime();
+                AIMovement.moveAI(name, bot);
+                bot.tick();
+                final long elapsed = System.nanoTime() - start;
+                if (bot.isLeader()) {
+                    leaderTick.record(elapsed);
+                    leaderPlayers.set(bot.getWorld().getPlayers().size());
+                } else {
+                    followerTick.record(elapsed);
+                }
+                nextTick += TimeUnit.MILLISECONDS.toNanos(GAME_TICK_MS);
+                final long sleep = nextTick - System.nanoTime();
+                if (sleep > 0) {
+                    TimeUnit.NANOSECONDS.sleep(sleep);
+                } else {
+                    nextTick = System.nanoTime(); // Overrun, do not try to catch up
+                }
+            }
+        } catch (Exception e) {
+            LOGGER.error("Bot {} stopped", name, e);
+        } finally {
+            close(name, bot, transport);
+        }
+    }
+
+    private static void close(String name, DistributedGameStateManager bot, Transport transport) {
+        try {
+            if (bot != null) {
+                bot.close();
+            } else {
+                transport.close();
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Bot {} not closed cleanly: {}", name, e.getMessage());
+        }
+    }
+
+    private void observeWorldMessage(byte[] message) throws IOException {
+        worldMessages.increment();
+        worldBytes.add(message.length);
+        final WorldMessage worldMessage = serializer.deserializeWorldMessage(message);
+        worldLatency.record(TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis() - worldMessage.timestamp()));
+    }
+
+    private void report(long end) {
+        try {
+            while (running && System.currentTimeMillis() < end) {
+                Thread.sleep(1000);
+                LOGGER.info("bots={} leaderPlayers={} | leader tick {} | follower tick {} | world latency {} | "
+                                + "player msg/s={} world msg/s={} world KB/s={}",
+                        bots.size(), leaderPlayers.get(), leaderTick.drain(), followerTick.drain(), worldLatency.drain(),
+                        playerMessages.sumThenReset(), worldMessages.sumThenReset(), worldBytes.sumThenReset() / 1024);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Count, mean and max of the durations recorded since the last drain.
+     */
+    private static final class Stats {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        void record(long nanos) {
+            count.increment();
+            total.add(nanos);
+            max.accumulate(nanos);
+        }
+
+        String drain() {
+            final long n = count.sumThenReset();
+            final long sum = total.sumThenReset();
+            final long maximum = max.getThenReset();
+            if (n == 0) {
+                return "-";
+            }
+            return String.format("n=%d avg=%.2fms max=%.2fms", n, sum / (double) n / 1e6, maximum / 1e6);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package it.unibo.agar.tools;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RunnableScheduledFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scheduler on a virtual clock, for replaying a session with the timers of the node firing at the
+ * recorded times: tasks only run when the clock is {@linkplain #advanceTo(long) advanced} past
+ * their time, on the thread advancing it, in order of time and then of submission.
+ * Not thread safe, the replay drives the node from a single thread.
+ */
+final class ReplayScheduler extends AbstractExecutorService implements ScheduledExecutorService {
+    private final PriorityQueue<Task<?>> tasks = new PriorityQueue<>();
+    private long now;
+    private long submitted = 0;
+    private boolean shutdown = false;
+
+    ReplayScheduler(final long startMillis) {
+        this.now = startMillis;
+    }
+
+    /**
+     * The time of the clock, in milliseconds.
+     */
+    long millis() {
+        return now;
+    }
+
+    /**
+     * Runs the tasks due up to the time, including those they submit for that time, and moves
+     * the clock there.
+     */
+    void advanceTo(final long millis) {
+        Task<?> task;
+        while ((task = tasks.peek()) != null && task.time <= millis) {
+            tasks.poll();
+            now = Math.max(now, task.time);
+            task.run();
+        }
+        now = Math.max(now, millis);
+    }
+
+    private <V> Task<V> schedule(final Task<V> task) {
+        if (!shutdown) {
+            tasks.add(task);
+        }
+        return task;
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule(final Runnable command, final long delay, final TimeUnit unit) {
+        return schedule(new Task<Void>(Executors.callable(command, null), now + unit.toMillis(delay), 0));
+    }
+
+    @Override
+    public <V> ScheduledFuture<V> schedule(final Callable<V> callable, final long delay, final TimeUnit unit) {
+        return schedule(new Task<>(callable, now + unit.toMillis(delay), 0));
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(final Runnable command, final long initialDelay, final long period,
+                                                  final TimeUnit unit) {
+        return schedule(new Task<Void>(Executors.callable(command, null), now + unit.toMillis(initialDelay),
+                Math.max(1, unit.toMillis(period))));
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(final Runnable command, final long initialDelay, final long delay,
+                                                     final TimeUnit unit) {
+        return schedule(new Task<Void>(Executors.callable(command, null), now + unit.toMillis(initialDelay),
+                -Math.max(1, unit.toMillis(delay))));
+    }
+
+    @Override
+    public void execute(final Runnable command) {
+        schedule(command, 0, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+        tasks.removeIf(Task::isPeriodic);
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        shutdown = true;
+        final List<Runnable> pending = new ArrayList<>(tasks);
+        tasks.clear();
+        return pending;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return shutdown && tasks.isEmpty();
+    }
+
+    @Override
+    public boolean awaitTermination(final long timeout, final TimeUnit unit) {
+        return isTerminated(); // Nothing runs unless the clock is advanced
+    }
+
+    /**
+     * @param period positive for a fixed rate, negative for a fixed delay, zero for a single run
+     */
+    private final class Task<V> extends FutureTask<V> implements RunnableScheduledFuture<V> {
+        private final long sequence = submitted++;
+        private final long period;
+        private long time;
+
+        Task(final Callable<V> callable, final long time, final long period) {
+            super(callable);
+            this.time = time;
+            this.period = period;
+        }
+
+        @Override
+        public boolean isPeriodic() {
+            return period != 0;
+        }
+
+        @Override
+        public void run() {
+            if (!isPeriodic()) {
+                super.run();
+            } else if (runAndReset()) {
+                time = period > 0 ? time + period : now - period;
+                schedule(this);
+            }
+        }
+
+        @Override
+        public boolean cancel(final boolean mayInterruptIfRunning) {
+            tasks.remove(this);
+            return super.cancel(mayInterruptIfRunning);
+        }
+
+        @Override
+        public long getDelay(final TimeUnit unit) {
+            return unit.convert(time - now, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(final Delayed other) {
+            if (other instanceof Task<?> task) {
+                final int byTime = Long.compare(time, task.time);
+                return byTime != 0 ? byTime : Long.compare(sequence, task.sequence);
+            }
+            return Long.compare(getDelay(TimeUnit.MILLISECONDS), other.getDelay(TimeUnit.MILLISECONDS));
+        }
+    }
+}
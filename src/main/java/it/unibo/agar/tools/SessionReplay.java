@@ -0,0 +1,158 @@
+package it.unibo.agar.tools;
+
+import it.unibo.agar.model.DistributedGameStateManager;
+import it.unibo.agar.model.GameMetrics;
+import it.unibo.agar.model.PlayerRoster;
+import it.unibo.agar.model.RosterMessage;
+import it.unibo.agar.model.Serializer;
+import it.unibo.agar.model.SessionRecorder;
+import it.unibo.agar.model.Transport;
+import it.unibo.agar.model.TransportChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays a session recorded by a node, see {@link SessionRecorder#DIRECTORY_PROPERTY}, into a new
+ * node with the same name, as fast as it can: the messages the node received are delivered in
+ * order through a transport that drops whatever the node publishes, with a tick for every
+ * {@value #GAME_TICK_MS} ms of the recording. The node keeps the ids its player had in the
+ * recording, and its clock, elections and world broadcasts follow the recorded time, so that every
+ * run of the same session goes the same way. The player of the node stays where it spawns.
+ * Usage: {@code SessionReplay <session file> [runs]}.
+ * After every run it logs the replay rate and the phase times of the node, to compare changes of
+ * the engine on real traffic.
+ */
+public class SessionReplay {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SessionReplay.class);
+    private static final long GAME_TICK_MS = 20;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: SessionReplay <session file> [runs]");
+            System.exit(1);
+        }
+        final SessionRecorder.Session session = SessionRecorder.read(Path.of(args[0]));
+        final int runs = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        final List<SessionRecorder.Record> received = session.records().stream()
+                .filter(record -> record.direction() == SessionRecorder.Direction.IN)
+                .toList();
+        LOGGER.info("Session of {}: {} messages received, {} sent", session.nodeId(), received.size(),
+                session.records().size() - received.size());
+        final List<Integer> playerIds = playerIds(session);
+        for (int run = 1; run <= runs; run++) {
+            replay(session.nodeId(), playerIds, received, run);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * The ids the player of the node announced, in order: the one it joined with, then the one it
+     * picked after every clash.
+     */
+    private static List<Integer> playerIds(SessionRecorder.Session session) throws IOException {
+        final Serializer serializer = new Serializer();
+        final Set<Integer> ids = new LinkedHashSet<>();
+        for (SessionRecorder.Record record : session.records()) {
+            if (record.direction() == SessionRecorder.Direction.OUT && record.channel() == TransportChannel.ROSTER) {
+                final RosterMessage message = serializer.deserializeRosterMessage(record.message());
+                if (message.name().equals(session.nodeId())) {
+                    ids.add(message.playerId());
+                }
+            }
+        }
+        if (ids.isEmpty()) {
+            LOGGER.warn("No announcement of {} in the session, its player gets a new id", session.nodeId());
+        }
+        return List.copyOf(ids);
+    }
+
+    private static void replay(String nodeId, List<Integer> playerIds, List<SessionRecorder.Record> received, int run)
+            throws IOException {
+        final ReplayTransport transport = new ReplayTransport();
+        final ReplayScheduler scheduler = new ReplayScheduler(System.currentTimeMillis()); // Only differences matter
+        final long origin = scheduler.millis(); // When the recording started
+        final Iterator<Integer> ids = playerIds.iterator();
+        final DistributedGameStateManager node = new DistributedGameStateManager(transport, nodeId, false, scheduler,
+                null, () -> ids.hasNext() ? ids.next() : PlayerRoster.randomId(), scheduler::millis);
+        final long tickNanos = TimeUnit.MILLISECONDS.toNanos(GAME_TICK_MS);
+        long nextTick = received.isEmpty() ? 0 : received.get(0).timeNanos();
+        long ticks = 0;
+        final long start = System.nanoTime();
+        for (SessionRecorder.Record record : received) {
+            while (record.timeNanos() >= nextTick) {
+                scheduler.advanceTo(origin + TimeUnit.NANOSECONDS.toMillis(nextTick));
+                node.tick();
+                ticks++;
+                nextTick += tickNanos;
+            }
+            scheduler.advanceTo(origin + TimeUnit.NANOSECONDS.toMillis(record.timeNanos()));
+            transport.deliver(record);
+        }
+        scheduler.advanceTo(origin + TimeUnit.NANOSECONDS.toMillis(nextTick));
+        node.tick();
+        ticks++;
+        final long elapsed = System.nanoTime() - start;
+        final GameMetrics metrics = node.metrics();
+        final Map<String, Double> mean = metrics.getMeanMillis();
+        LOGGER.info("Run {}: {} ticks and {} messages in {} ms, {} ticks/s, {} messages published",
+                run, ticks, received.size(), TimeUnit.NANOSECONDS.toMillis(elapsed),
+                ticks * TimeUnit.SECONDS.toNanos(1) / Math.max(1, elapsed), transport.published);
+        LOGGER.info("Run {}: tick avg={} max={} | drain={} move={} eat={} refill={} serialize={} decode={}",
+                run, ms(mean, "TICK"), ms(metrics.getMaxMillis(), "TICK"), ms(mean, "DRAIN"), ms(mean, "MOVE"),
+                ms(mean, "EAT"), ms(mean, "FOOD_REFILL"), ms(mean, "SERIALIZE"), ms(mean, "DECODE"));
+        node.close(); // Also the metrics
+        scheduler.shutdownNow();
+    }
+
+    private static String ms(Map<String, Double> millis, String metric) {
+        return String.format("%.3fms", millis.getOrDefault(metric, 0.0));
+    }
+
+    /**
+     * Delivers the recorded messages to the subscribers of their channel. Routing was already done
+     * when the session was recorded, so bindings are ignored.
+     */
+    private static final class ReplayTransport implements Transport {
+        private final Map<TransportChannel, List<MessageHandler>> handlers = new EnumMap<>(TransportChannel.class);
+        private long published = 0;
+
+        void deliver(SessionRecorder.Record record) throws IOException {
+            for (MessageHandler handler : handlers.getOrDefault(record.channel(), List.of())) {
+                handler.onMessage(record.message());
+            }
+        }
+
+        @Override
+        public void publish(TransportChannel channel, String routingKey, byte[] message) {
+            published++;
+        }
+
+        @Override
+        public void subscribe(TransportChannel channel, MessageHandler handler) {
+            handlers.computeIfAbsent(channel, c -> new ArrayList<>()).add(handler);
+        }
+
+        @Override
+        public void bind(TransportChannel channel, String bindingKey) {
+        }
+
+        @Override
+        public void unbind(TransportChannel channel, String bindingKey) {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
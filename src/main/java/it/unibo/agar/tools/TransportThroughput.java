@@ -0,0 +1,63 @@
+package it.unibo.agar.tools;
+
+import it.unibo.agar.model.RabbitMQConnector;
+import it.unibo.agar.model.TransportChannel;
+import it.unibo.agar.model.TransportProfile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Measures publish and end-to-end delivery rate of the transport profiles on a broker.
+ * Usage: {@code TransportThroughput [host] [messages] [payloadBytes]}.
+ * Run it against a broker with no game in progress: the probe publishes on the world exchange.
+ */
+public class TransportThroughput {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TransportThroughput.class);
+    private static final long DELIVERY_TIMEOUT_S = 60;
+
+    public static void main(String[] args) throws IOException, TimeoutException, InterruptedException {
+        final String host = args.length > 0 ? args[0] : "localhost";
+        final int messages = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+        final int payloadBytes = args.length > 2 ? Integer.parseInt(args[2]) : 512;
+
+        measure("STREAM", TransportProfile.STREAM, host, messages, payloadBytes);
+        measure("RELIABLE", TransportProfile.RELIABLE, host, messages, payloadBytes);
+    }
+
+    private static void measure(String name, TransportProfile profile, String host, int messages, int payloadBytes)
+            throws IOException, TimeoutException, InterruptedException {
+        final RabbitMQConnector connector = new RabbitMQConnector(profile, profile, profile, profile, profile, profile, profile);
+        connector.connect(host);
+        final CountDownLatch delivered = new CountDownLatch(messages);
+        connector.bind(TransportChannel.WORLD, "#");
+        connector.subscribe(TransportChannel.WORLD, message -> delivered.countDown());
+
+        final byte[] payload = new byte[payloadBytes];
+        final long start = System.nanoTime();
+        for (int i = 0; i < messages; i++) {
+            connector.publish(TransportChannel.WORLD, payload);
+        }
+        final long published = System.nanoTime();
+        final boolean complete = delivered.await(DELIVERY_TIMEOUT_S, TimeUnit.SECONDS);
+        final long end = System.nanoTime();
+        connector.close();
+
+        LOGGER.info("{}: published {} msg/s, delivered {}/{} at {} msg/s",
+                name,
+                rate(messages, published - start),
+                messages - delivered.getCount(), messages,
+                rate(messages - delivered.getCount(), end - start));
+        if (!complete) {
+            LOGGER.warn("{}: not every message was delivered within {} s", name, DELIVERY_TIMEOUT_S);
+        }
+    }
+
+    private static long rate(long messages, long nanos) {
+        return nanos == 0 ? 0 : messages * TimeUnit.SECONDS.toNanos(1) / nanos;
+    }
+}
@@ -1,18 +1,17 @@
 package it.unibo.agar.view;
 
 import it.unibo.agar.model.Entity;
-import it.unibo.agar.model.Food;
-import it.unibo.agar.model.Player;
 import it.unibo.agar.model.World;
 
 import java.awt.*;
-import java.util.Random;
 
 public class AgarViewUtils {
 
     private static final Color PLAYER_BORDER_COLOR = Color.BLACK;
     private static final int PLAYER_LABEL_OFFSET_X = 10;
     private static final int PLAYER_LABEL_OFFSET_Y = 0;
+    private static final int MAX_RECT_DIAMETER = 3; // Below this size an oval is indistinguishable from a square
+    private static final int MIN_LABEL_RADIUS = 5;
     private static final Color[] PLAYER_PALETTE = {
             Color.BLUE, Color.ORANGE, Color.CYAN, Color.PINK,
             Color.YELLOW, Color.RED, Color.GREEN, Color.LIGHT_GRAY
@@ -37,25 +36,48 @@ public class AgarViewUtils {
        final int y = (int) (entity.getY() - offsetY - radius);
        return new PositioningInfo(x, y, radius);
     }
-    public static void drawWorld(final Graphics2D g, final World world, final double offsetX, final double offsetY) {
+    /**
+     * Draws the entities of the world that intersect the visible area, {@code viewWidth} by
+     * {@code viewHeight} pixels starting at the given offset. Entities smaller than a few pixels
+     * are drawn as squares and small players get no label.
+     */
+    public static void drawWorld(final Graphics2D g, final World world, final double offsetX, final double offsetY,
+                                 final int viewWidth, final int viewHeight) {
+        final double maxX = offsetX + viewWidth;
+        final double maxY = offsetY + viewHeight;
+
         // Draw foods
         g.setColor(Color.GREEN);
-        for (Food food : world.getFoods()) {
-            var positioning = getPositioningInfo(food, offsetX, offsetY);
-            g.fillOval(positioning.x, positioning.y, positioning.diameter(), positioning.diameter());
-        }
+        world.forEachFoodIn(offsetX, offsetY, maxX, maxY, food -> fillEntity(g, food, offsetX, offsetY));
 
         // Draw players
-        for (Player player : world.getPlayers()) {
-            var positioning = getPositioningInfo(player, offsetX, offsetY);
-            g.setColor(getPlayerColor(player.getId()));
+        world.forEachPlayerIn(offsetX, offsetY, maxX, maxY, player -> {
+            var positioning = fillEntity(g, player, offsetX, offsetY, getPlayerColor(player.getId()));
+            if (positioning.radius >= MIN_LABEL_RADIUS) {
+                // Draw player ID
+                g.setColor(PLAYER_BORDER_COLOR);
+                // Adjust label position to be relative to the player's actual center on screen
+                int labelX = positioning.x - PLAYER_LABEL_OFFSET_X;
+                int labelY = positioning.y - PLAYER_LABEL_OFFSET_Y;
+                g.drawString(player.getId(), labelX, labelY);
+            }
+        });
+    }
+
+    private static PositioningInfo fillEntity(final Graphics2D g, final Entity entity,
+                                              final double offsetX, final double offsetY, final Color color) {
+        g.setColor(color);
+        return fillEntity(g, entity, offsetX, offsetY);
+    }
+
+    private static PositioningInfo fillEntity(final Graphics2D g, final Entity entity,
+                                              final double offsetX, final double offsetY) {
+        var positioning = getPositioningInfo(entity, offsetX, offsetY);
+        if (positioning.diameter() <= MAX_RECT_DIAMETER) {
+            g.fillRect(positioning.x, positioning.y, Math.max(1, positioning.diameter()), Math.max(1, positioning.diameter()));
+        } else {
             g.fillOval(positioning.x, positioning.y, positioning.diameter(), positioning.diameter());
-            // Draw player ID
-            g.setColor(PLAYER_BORDER_COLOR);
-            // Adjust label position to be relative to the player's actual center on screen
-            int labelX = positioning.x - PLAYER_LABEL_OFFSET_X;
-            int labelY = positioning.y - PLAYER_LABEL_OFFSET_Y;
-            g.drawString(player.getId(), labelX, labelY);
         }
+        return positioning;
     }
 }
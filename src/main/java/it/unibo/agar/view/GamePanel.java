@@ -6,17 +6,41 @@ import it.unibo.agar.model.World;
 
 import javax.swing.*;
 import java.awt.*;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.image.BufferStrategy;
 import java.util.Optional;
 
-public class GamePanel extends JPanel {
+/**
+ * Actively rendered game canvas: {@link #render()} is called by the render thread and draws into
+ * a {@link BufferStrategy}, bypassing the Swing repaint queue. A frame is drawn only when the
+ * world snapshot changed or the canvas was resized or exposed.
+ */
+public class GamePanel extends Canvas {
+    private static final int BUFFERS = 2;
 
     private final GameStateManager gameStateManager;
     private final String focusedPlayerId; // Null for global view
+    private transient World lastRenderedWorld;
+    private volatile boolean invalidated = true;
 
     public GamePanel(GameStateManager gameStateManager, String focusedPlayerId) {
         this.gameStateManager = gameStateManager;
         this.focusedPlayerId = focusedPlayerId;
         this.setFocusable(true); // Important for receiving keyboard/mouse events if needed directly
+        this.setIgnoreRepaint(true);
+        this.setBackground(UIManager.getColor("Panel.background"));
+        this.addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                invalidated = true;
+            }
+
+            @Override
+            public void componentShown(ComponentEvent e) {
+                invalidated = true;
+            }
+        });
     }
 
     public GamePanel(GameStateManager gameStateManager) {
@@ -24,21 +48,55 @@ public class GamePanel extends JPanel {
     }
 
     @Override
-    protected void paintComponent(Graphics g) {
-        super.paintComponent(g);
-        Graphics2D g2d = (Graphics2D) g;
+    public void paint(Graphics g) {
+        invalidated = true; // Exposed by the system, the render thread draws the next frame
+    }
+
+    /**
+     * Draws a frame if there is something new to show. Called by the render thread only.
+     */
+    public void render() {
+        if (!isDisplayable() || getWidth() <= 0 || getHeight() <= 0) {
+            return;
+        }
+        final World world = gameStateManager.getRenderWorld();
+        if (world == lastRenderedWorld && !invalidated) {
+            return;
+        }
+        invalidated = false;
+        lastRenderedWorld = world;
+        BufferStrategy strategy = getBufferStrategy();
+        if (strategy == null) {
+            createBufferStrategy(BUFFERS);
+            strategy = getBufferStrategy();
+        }
+        do {
+            do {
+                final Graphics2D g2d = (Graphics2D) strategy.getDrawGraphics();
+                try {
+                    draw(g2d, world);
+                } finally {
+                    g2d.dispose();
+                }
+            } while (strategy.contentsRestored());
+            strategy.show();
+        } while (strategy.contentsLost());
+        Toolkit.getDefaultToolkit().sync();
+    }
 
-        World world = gameStateManager.getWorld();
+    private void draw(Graphics2D g2d, World world) {
+        g2d.setColor(getBackground());
+        g2d.fillRect(0, 0, getWidth(), getHeight());
         if (focusedPlayerId != null) {
             Optional<Player> playerOpt = world.getPlayerById(focusedPlayerId);
             if (playerOpt.isPresent()) {
                 Player player = playerOpt.get();
                 final double offsetX = player.getX() - getWidth() / 2.0;
                 final double offsetY = player.getY() - getHeight() / 2.0;
-                AgarViewUtils.drawWorld(g2d, world, offsetX, offsetY);
+                AgarViewUtils.drawWorld(g2d, world, offsetX, offsetY, getWidth(), getHeight());
             }
         } else {
-            AgarViewUtils.drawWorld(g2d, world, 0, 0);
+            AgarViewUtils.drawWorld(g2d, world, 0, 0, getWidth(), getHeight());
         }
     }
 }
@@ -21,9 +21,9 @@ public class GlobalView extends JFrame {
         setLocationRelativeTo(null);
     }
 
-    public void repaintView() {
+    public void renderView() {
         if (gamePanel != null) {
-            gamePanel.repaint();
+            gamePanel.render();
         }
     }
 }
@@ -53,15 +53,15 @@ public class LocalView extends JFrame {
                 } else {
                     gameStateManager.setPlayerDirection(playerId, 0, 0); // Stop if mouse is at center
                 }
-                // Repainting is handled by the main game loop timer
+                // Rendering is handled by the render thread of the game loop
             }
             }
         });
     }
 
-    public void repaintView() {
+    public void renderView() {
         if (gamePanel != null) {
-            gamePanel.repaint();
+            gamePanel.render();
         }
     }
 }